@@ -0,0 +1,95 @@
+package benchmarks;
+
+import java.io.BufferedOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.file.FileSystem;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.spi.FileSystemProvider;
+import java.util.Comparator;
+import java.util.Map;
+import java.util.Random;
+import java.util.stream.Stream;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+
+import net.devtech.betterzipfs.ZipFS;
+
+/**
+ * Generates the archives the benchmarks run on and opens them with either implementation.
+ */
+final class Archives {
+	static final String BETTER = "better", JDK = "jdk";
+	static final FileSystemProvider JDK_PROVIDER = FileSystemProvider.installedProviders()
+	                                                                 .stream()
+	                                                                 .filter(p -> p.getClass().getName().equals("jdk.nio.zipfs.ZipFileSystemProvider"))
+	                                                                 .findFirst()
+	                                                                 .orElseThrow();
+	
+	private Archives() {}
+	
+	static String name(int index) {
+		return "dir" + (index % 32) + "/entry" + index + ".bin";
+	}
+	
+	/**
+	 * semi compressible contents, so deflate has some actual work to do
+	 */
+	static byte[] contents(int index, int size) {
+		Random random = new Random(index);
+		byte[] contents = new byte[size];
+		for(int i = 0; i < size; i++) {
+			contents[i] = (byte) ('a' + random.nextInt(8));
+		}
+		return contents;
+	}
+	
+	static Path generate(Path directory, int entries, int entrySize) throws IOException {
+		Path zip = directory.resolve("source_" + entries + "_" + entrySize + ".zip");
+		if(Files.exists(zip)) {
+			return zip;
+		}
+		try(ZipOutputStream output = new ZipOutputStream(new BufferedOutputStream(Files.newOutputStream(zip)))) {
+			for(int i = 0; i < entries; i++) {
+				output.putNextEntry(new ZipEntry(name(i)));
+				output.write(contents(i, entrySize));
+				output.closeEntry();
+			}
+		}
+		return zip;
+	}
+	
+	static FileSystem open(String impl, Path zip, Map<String, ?> env) throws IOException {
+		return switch(impl) {
+			case BETTER -> ZipFS.newFileSystem(zip, env);
+			case JDK -> JDK_PROVIDER.newFileSystem(zip, env);
+			default -> throw new IllegalArgumentException(impl);
+		};
+	}
+	
+	static FileSystem create(String impl, Path zip) throws IOException {
+		Files.deleteIfExists(zip);
+		return open(impl, zip, ZipFS.CREATE_SETTINGS);
+	}
+	
+	static Path tempDirectory() throws IOException {
+		return Files.createTempDirectory("bzfs-jmh");
+	}
+	
+	static void delete(Path directory) throws IOException {
+		try(Stream<Path> walk = Files.walk(directory)) {
+			for(Path path : (Iterable<Path>) walk.sorted(Comparator.reverseOrder())::iterator) {
+				Files.delete(path);
+			}
+		}
+	}
+	
+	static void write(FileSystem fs, String name, byte[] contents) throws IOException {
+		Path path = fs.getPath(name);
+		Files.createDirectories(path.getParent());
+		try(OutputStream output = Files.newOutputStream(path)) {
+			output.write(contents);
+		}
+	}
+}
@@ -0,0 +1,65 @@
+package benchmarks;
+
+import java.io.IOException;
+import java.nio.file.FileSystem;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Map;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * many threads reading a small set of hot entries out of one file system
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(1)
+@Threads(8)
+public class ConcurrentReadBenchmark {
+	@Param({Archives.BETTER, Archives.JDK})
+	public String impl;
+	@Param({"1", "64"})
+	public int hotEntries;
+	@Param({"512", "65536"})
+	public int entrySize;
+	
+	Path directory;
+	FileSystem fs;
+	
+	@Setup(Level.Trial)
+	public void setup() throws IOException {
+		this.directory = Archives.tempDirectory();
+		Path zip = Archives.generate(this.directory, this.hotEntries, this.entrySize);
+		this.fs = Archives.open(this.impl, zip, Map.of());
+	}
+	
+	@TearDown(Level.Trial)
+	public void tearDown() throws IOException {
+		this.fs.close();
+		Archives.delete(this.directory);
+	}
+	
+	@Benchmark
+	public byte[] read() throws IOException {
+		int index = ThreadLocalRandom.current().nextInt(this.hotEntries);
+		return Files.readAllBytes(this.fs.getPath(Archives.name(index)));
+	}
+}
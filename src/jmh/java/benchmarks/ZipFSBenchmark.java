@@ -0,0 +1,124 @@
+package benchmarks;
+
+import java.io.IOException;
+import java.nio.file.FileSystem;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import net.devtech.betterzipfs.ZipFS;
+
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(1)
+public class ZipFSBenchmark {
+	@Param({Archives.BETTER, Archives.JDK})
+	public String impl;
+	@Param({"100", "5000"})
+	public int entries;
+	@Param({"512", "16384"})
+	public int entrySize;
+	
+	Path directory, source;
+	byte[][] contents;
+	FileSystem sourceFs;
+	
+	@Setup(Level.Trial)
+	public void setup() throws IOException {
+		this.directory = Archives.tempDirectory();
+		this.source = Archives.generate(this.directory, this.entries, this.entrySize);
+		this.contents = new byte[this.entries][];
+		for(int i = 0; i < this.entries; i++) {
+			this.contents[i] = Archives.contents(i, this.entrySize);
+		}
+		this.sourceFs = Archives.open(this.impl, this.source, Map.of());
+	}
+	
+	@TearDown(Level.Trial)
+	public void tearDown() throws IOException {
+		this.sourceFs.close();
+		Archives.delete(this.directory);
+	}
+	
+	@Benchmark
+	public void writeThenRead(Blackhole blackhole) throws IOException {
+		try(FileSystem fs = Archives.create(this.impl, this.directory.resolve("write.zip"))) {
+			for(int i = 0; i < this.entries; i++) {
+				String name = Archives.name(i);
+				Archives.write(fs, name, this.contents[i]);
+				blackhole.consume(Files.readAllBytes(fs.getPath(name)));
+			}
+		}
+	}
+	
+	@Benchmark
+	public void zipToZipCopy() throws IOException {
+		try(FileSystem fs = Archives.create(this.impl, this.directory.resolve("copy.zip"))) {
+			for(int i = 0; i < this.entries; i++) {
+				String name = Archives.name(i);
+				Path to = fs.getPath(name);
+				Files.createDirectories(to.getParent());
+				Files.copy(this.sourceFs.getPath(name), to, StandardCopyOption.REPLACE_EXISTING);
+			}
+		}
+	}
+	
+	@Benchmark
+	public long unorderedFastStream() throws IOException {
+		return ZipFS.unorderedFastStream(this.sourceFs).count();
+	}
+	
+	@Benchmark
+	public long walk() throws IOException {
+		try(Stream<Path> walk = Files.walk(this.sourceFs.getPath("/"))) {
+			return walk.count();
+		}
+	}
+	
+	/**
+	 * the cost of writing pending entries to disk, the entries are written before each invocation
+	 */
+	@State(Scope.Thread)
+	public static class PendingWrites {
+		FileSystem fs;
+		
+		@Setup(Level.Invocation)
+		public void setup(ZipFSBenchmark benchmark) throws IOException {
+			this.fs = Archives.create(benchmark.impl, benchmark.directory.resolve("flush.zip"));
+			for(int i = 0; i < benchmark.entries; i++) {
+				Archives.write(this.fs, Archives.name(i), benchmark.contents[i]);
+			}
+		}
+		
+		@TearDown(Level.Invocation)
+		public void tearDown() throws IOException {
+			this.fs.close();
+		}
+	}
+	
+	@Benchmark
+	public void flush(PendingWrites writes) {
+		ZipFS.flush(writes.fs, true);
+	}
+}
@@ -2,5 +2,6 @@ import net.devtech.betterzipfs.impl.ZipFSProvider;
 
 module net.devtech.betterzipfs {
 	requires jdk.unsupported;
+	requires jdk.jfr;
 	provides java.nio.file.spi.FileSystemProvider with ZipFSProvider;
 }
\ No newline at end of file
@@ -2,6 +2,7 @@ package net.devtech.betterzipfs;
 
 import java.io.IOException;
 import java.net.URI;
+import java.nio.file.CopyOption;
 import java.nio.file.FileSystem;
 import java.nio.file.FileSystems;
 import java.nio.file.Files;
@@ -9,12 +10,24 @@ import java.nio.file.Path;
 import java.util.ArrayList;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
 import java.util.stream.Stream;
 
 import net.devtech.betterzipfs.impl.BetterZipFS;
+import net.devtech.betterzipfs.impl.ConflictStrategy;
+import net.devtech.betterzipfs.impl.EntryMetadata;
+import net.devtech.betterzipfs.impl.ExtractOptions;
+import net.devtech.betterzipfs.impl.PackOptions;
+import net.devtech.betterzipfs.impl.SequentialScan;
 import net.devtech.betterzipfs.impl.ZipFSInternal;
 import net.devtech.betterzipfs.impl.ZipFSProvider;
 import net.devtech.betterzipfs.impl.ZipFSReflect;
+import net.devtech.betterzipfs.impl.ZipExtractor;
+import net.devtech.betterzipfs.impl.ZipFSStats;
+import net.devtech.betterzipfs.impl.ZipIndex;
+import net.devtech.betterzipfs.impl.ZipMerger;
+import net.devtech.betterzipfs.impl.ZipPacker;
 
 public final class ZipFS {
 	// todo maybe fix SeekableByteChannelWrapper implementation cus of the limiter, eh it's not needed apparently
@@ -27,6 +40,59 @@ public final class ZipFS {
 		return ZipFSProvider.chaoticStream(system);
 	}
 	
+	/**
+	 * @return the metadata of every entry in the zip, in no particular order, this reads it straight out of the zip's index instead of looking
+	 * up the attributes of each path
+	 */
+	public static Stream<EntryMetadata> entries(FileSystem system) {
+		return ZipFSProvider.entries(system);
+	}
+	
+	/**
+	 * reads every file in the zip in the order they're laid out in the zip file, in large blocks, which is much faster than reading each path
+	 * from {@link #unorderedFastStream(FileSystem)} on its own
+	 * @return the number of files visited
+	 */
+	public static long scan(FileSystem system, SequentialScan.Visitor visitor) throws IOException {
+		return SequentialScan.scan(system, visitor);
+	}
+	
+	/**
+	 * extracts every file and directory in the zip to {@code targetDir}, files that are still in the zip file are read from it in parallel on
+	 * the options' executor, which is much faster than calling {@link Files#copy(Path, Path, CopyOption...)} for each path
+	 * @return the number of files extracted
+	 */
+	public static long extract(FileSystem system, Path targetDir, ExtractOptions options) throws IOException {
+		return ZipExtractor.extract(system, targetDir, options);
+	}
+	
+	public static long extract(FileSystem system, Path targetDir) throws IOException {
+		return extract(system, targetDir, ExtractOptions.DEFAULT);
+	}
+	
+	/**
+	 * zips every file and directory in {@code sourceDir}, files are read and compressed in parallel on the options' executor and written in
+	 * the order of their names, which is much faster than calling {@link Files#copy(Path, Path, CopyOption...)} for each file and letting
+	 * the zip compress them one at a time when it's closed
+	 * @param zip replaced if it already exists
+	 * @return the number of entries in the zip
+	 */
+	public static int pack(Path sourceDir, Path zip, PackOptions options) throws IOException {
+		return ZipPacker.pack(sourceDir, zip, options);
+	}
+	
+	public static int pack(Path sourceDir, Path zip) throws IOException {
+		return pack(sourceDir, zip, PackOptions.DEFAULT);
+	}
+	
+	/**
+	 * opens a zip for reading through a memory mapped index kept next to it, which opens in constant time no matter how many entries the zip
+	 * has, unlike a file system which parses the whole central directory first. The index is built on first use and whenever the zip changes.
+	 */
+	public static ZipIndex openIndexed(Path path) throws IOException {
+		return ZipIndex.open(path);
+	}
+	
 	/**
 	 * @deprecated unsafe
 	 */
@@ -39,14 +105,23 @@ public final class ZipFS {
 		return newFileSystem(path, CREATE_SETTINGS);
 	}
 	
+	/**
+	 * creates a write only zip, each entry is compressed and written to the file as soon as its channel is closed, and the central directory is
+	 * written when the file system is closed, so only one entry is held in memory at a time. Entries can't be read back, and an existing file is
+	 * replaced.
+	 */
+	public static FileSystem createStreaming(Path path) throws IOException {
+		return BetterZipFS.createStreaming(path);
+	}
+	
 	public static FileSystem newFileSystem(URI uri, Map<String,?> env)
 			throws IOException {
-		return wrap(FileSystems.newFileSystem(uri, env));
+		return ZipFSInternal.wrap(FileSystems.newFileSystem(uri, env), env);
 	}
 	
 	public static FileSystem newFileSystem(URI uri, Map<String,?> env, ClassLoader loader)
 			throws IOException {
-		return wrap(FileSystems.newFileSystem(uri, env, loader));
+		return ZipFSInternal.wrap(FileSystems.newFileSystem(uri, env, loader), env);
 	}
 	
 	public static FileSystem newFileSystem(
@@ -55,12 +130,12 @@ public final class ZipFS {
 	}
 	
 	public static FileSystem newFileSystem(Path path, Map<String, ?> env) throws IOException {
-		return wrap(FileSystems.newFileSystem(path, env));
+		return ZipFSInternal.wrap(FileSystems.newFileSystem(path, env), env);
 	}
 	
 	public static FileSystem newFileSystem(
 			Path path, Map<String, ?> env, ClassLoader loader) throws IOException {
-		return wrap(FileSystems.newFileSystem(path, env, loader));
+		return ZipFSInternal.wrap(FileSystems.newFileSystem(path, env, loader), env);
 	}
 	
 	public static FileSystem newFileSystem(Path path) throws IOException {
@@ -76,22 +151,76 @@ public final class ZipFS {
 	 * @param cast whether to throw an exception or silently fail if the FileSystem is not a zip file system
 	 */
 	public static void flush(FileSystem fs, boolean cast) {
-		FileSystem zipfs;
+		flush(fs, cast, fs instanceof BetterZipFS z ? z.syncExecutor : null);
+	}
+	
+	/**
+	 * write the ZipFileSystem to the disk without closing it
+	 * @param cast whether to throw an exception or silently fail if the FileSystem is not a zip file system
+	 * @param executor where to write pending channels to the ZipFileSystem and deflate their entries, or null for the common pool. A plain
+	 * ZipFileSystem deflates each entry as its channel is closed, so this is only used for a {@link BetterZipFS}
+	 */
+	public static void flush(FileSystem fs, boolean cast, Executor executor) {
 		if(fs instanceof BetterZipFS z) {
-			zipfs = z.zipfs;
-			z.flush(null);
+			z.sync(executor);
 		} else if(ZipFSReflect.ZIPFS.isInstance(fs)) {
-			zipfs = fs;
+			BetterZipFS.sync(fs);
 		} else if(cast) {
 			throw new IllegalStateException(fs + " is not a ZipFileSystem/ZipFS");
-		} else {
-			return;
 		}
-		
-		ZipFSReflect.ZipFS.sync(zipfs);
+	}
+	
+	/**
+	 * writes pending channels to the ZipFileSystem, and then writes it to the disk in the background without closing it. If the file system
+	 * is already being written to the disk, this waits for that to finish first.
+	 * @return a future that completes once the file system is on the disk
+	 * @throws IllegalArgumentException if the file system is not a {@link BetterZipFS}
+	 */
+	public static CompletableFuture<Void> flushAsync(FileSystem fs) {
+		if(fs instanceof BetterZipFS z) {
+			return z.syncAsync(z.syncExecutor);
+		}
+		throw new IllegalArgumentException(fs + " is not a ZipFS");
+	}
+	
+	/**
+	 * @return a snapshot of the counters of the given file system
+	 * @throws IllegalArgumentException if the file system is not a {@link BetterZipFS}
+	 */
+	public static ZipFSStats.Snapshot stats(FileSystem fs) {
+		if(fs instanceof BetterZipFS z) {
+			return z.stats.snapshot(z);
+		}
+		throw new IllegalArgumentException(fs + " is not a ZipFS");
 	}
 	
 	public static void flush(Path path) throws IOException {
 		ZipFSProvider.flush(path);
 	}
+	
+	/**
+	 * copies every entry in {@code srcDir} to the same relative location in {@code dstDir} without decompressing or recompressing them, this
+	 * is much faster than calling {@link Files#copy(Path, Path, CopyOption...)} for each entry.
+	 *
+	 * @param srcDir a directory (or file) in a {@link BetterZipFS}
+	 * @param dstDir the directory to copy into, may be in the same or a different {@link BetterZipFS}
+	 * @param options {@link java.nio.file.StandardCopyOption#REPLACE_EXISTING} and {@link java.nio.file.StandardCopyOption#COPY_ATTRIBUTES}
+	 * @return the number of files transferred
+	 */
+	public static long transfer(Path srcDir, Path dstDir, CopyOption... options) throws IOException {
+		return ZipFSProvider.transfer(srcDir, dstDir, options);
+	}
+	
+	/**
+	 * merges the zips into one, copying each entry's compressed contents straight from the input file to the output file, so memory use
+	 * doesn't grow with the size of the zips. This is much faster than opening each zip and calling
+	 * {@link Files#copy(Path, Path, CopyOption...)} for each entry.
+	 *
+	 * @param output the merged zip, replaced if it already exists
+	 * @param strategy what to do with entries that are in more than one of the zips, e.g. {@link ConflictStrategy#FIRST_WINS}
+	 * @return the number of entries in the merged zip
+	 */
+	public static int merge(List<Path> inputs, Path output, ConflictStrategy strategy) throws IOException {
+		return ZipMerger.merge(inputs, output, strategy);
+	}
 }
@@ -8,19 +8,85 @@ import java.nio.file.PathMatcher;
 import java.nio.file.WatchService;
 import java.nio.file.attribute.UserPrincipalLookupService;
 import java.nio.file.spi.FileSystemProvider;
+import java.util.ArrayList;
 import java.util.Iterator;
+import java.util.List;
 import java.util.Map;
 import java.util.Set;
-import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ForkJoinPool;
 import java.util.function.UnaryOperator;
 import java.util.stream.Stream;
 
 public class BetterZipFS extends FileSystem {
+	/**
+	 * env key, an {@link Executor} (or "true" for the common pool) to write pending channels to the zip file system on, deflating their
+	 * entries, when it's flushed or synced
+	 */
+	public static final String SYNC_EXECUTOR = "syncExecutor";
+	/**
+	 * env key, "true" to read uncompressed entries straight out of a memory mapping of the zip file instead of copying them onto the heap
+	 */
+	public static final String MAP_STORED = "mapStoredEntries";
+	/**
+	 * env key, the maximum number of bytes of entry contents to keep cached in memory, defaults to {@link ContentCache#DEFAULT_BUDGET}
+	 */
+	public static final String CONTENT_CACHE_SIZE = "contentCacheSize";
+	/**
+	 * env key, "true" to keep cached contents in direct buffers outside the heap
+	 */
+	public static final String DIRECT_CONTENT_CACHE = "directContentCache";
+	/**
+	 * env key, "true" to sync by appending changed entries and a new central directory to the zip file instead of rewriting all of it, see
+	 * {@link IncrementalSync}
+	 */
+	public static final String INCREMENTAL_SYNC = "incrementalSync";
+	/**
+	 * env key, "true" to share the compressed bytes of entries that are written or copied with the same contents, see {@link Deduplicator}
+	 */
+	public static final String DEDUPLICATE = "deduplicate";
+	/**
+	 * env key, a {@link CompressionPolicy}, a deflate level, "stored", or "adaptive" to choose how each new entry is compressed
+	 */
+	public static final String COMPRESSION_POLICY = "compressionPolicy";
+	
 	public final FileSystem zipfs;
-	public final Map<ByteArrayWrapper, ZipPath> pathCache = new ConcurrentHashMap<>();
+	public final PathTable pathCache = new PathTable();
+	public final ContentCache contentCache = new ContentCache();
+	public final ZipFSStats stats = new ZipFSStats();
 	final UnaryOperator<Path> converter = this::wrap;
 	final Path root;
 	final ZipFSProvider provider;
+	/**
+	 * null if pending channels should be flushed on the common pool, and their entries deflated by zipfs as the channels are closed
+	 */
+	public volatile Executor syncExecutor;
+	public volatile boolean mapStored;
+	/**
+	 * the last sync started by {@link #syncAsync(Executor)}, and the thread it runs on
+	 */
+	private CompletableFuture<Void> inFlight;
+	private ExecutorService writer;
+	/**
+	 * null if the zip file should be rewritten on sync
+	 */
+	volatile IncrementalSync incrementalSync;
+	/**
+	 * null if entries shouldn't be deduplicated
+	 */
+	public volatile Deduplicator deduplicator;
+	/**
+	 * null if zipfs should compress new entries as usual
+	 */
+	public volatile CompressionPolicy compressionPolicy;
+	/**
+	 * null unless the file system was created with {@link #createStreaming(Path)}
+	 */
+	volatile StreamingZip streaming;
 	
 	public BetterZipFS(FileSystem zipfs, ZipFSProvider provider) {
 		this.zipfs = zipfs;
@@ -33,13 +99,72 @@ public class BetterZipFS extends FileSystem {
 		}
 	}
 	
+	/**
+	 * creates a new, write only zip file system, each entry is compressed and written to the zip file as soon as its channel is closed, instead
+	 * of being kept in memory until the file system is closed. Entries can't be read back.
+	 */
+	public static BetterZipFS createStreaming(Path file) throws IOException {
+		return StreamingZip.create(file);
+	}
+	
+	/**
+	 * applies the BetterZipFS specific options in the env map passed to newFileSystem
+	 */
+	public BetterZipFS configure(Map<String, ?> env) {
+		Object executor = env.get(SYNC_EXECUTOR);
+		if(executor instanceof Executor e) {
+			this.syncExecutor = e;
+		} else if(executor != null && Boolean.parseBoolean(executor.toString())) {
+			this.syncExecutor = ForkJoinPool.commonPool();
+		}
+		Object mapStored = env.get(MAP_STORED);
+		if(mapStored != null) {
+			this.mapStored = Boolean.parseBoolean(mapStored.toString());
+		}
+		Object cacheSize = env.get(CONTENT_CACHE_SIZE);
+		if(cacheSize != null) {
+			this.contentCache.budget = cacheSize instanceof Number n ? n.longValue() : Long.parseLong(cacheSize.toString());
+		}
+		Object direct = env.get(DIRECT_CONTENT_CACHE);
+		if(direct != null) {
+			this.contentCache.direct = Boolean.parseBoolean(direct.toString());
+		}
+		Object deduplicate = env.get(DEDUPLICATE);
+		if(deduplicate != null) {
+			boolean enabled = Boolean.parseBoolean(deduplicate.toString());
+			if(enabled != (this.deduplicator != null)) {
+				this.deduplicator = enabled ? new Deduplicator(this.zipfs) : null;
+			}
+		}
+		Object policy = env.get(COMPRESSION_POLICY);
+		if(policy instanceof CompressionPolicy p) {
+			this.compressionPolicy = p;
+		} else if(policy instanceof Number n) {
+			this.compressionPolicy = CompressionPolicy.level(n.intValue());
+		} else if(policy != null) {
+			String name = policy.toString();
+			this.compressionPolicy = switch(name) {
+				case "stored" -> CompressionPolicy.level(CompressionPolicy.STORED);
+				case "adaptive" -> CompressionPolicy.adaptive(4096, .1, CompressionPolicy.DEFAULT);
+				default -> CompressionPolicy.level(Integer.parseInt(name));
+			};
+		}
+		Object incremental = env.get(INCREMENTAL_SYNC);
+		if(incremental != null) {
+			boolean enabled = Boolean.parseBoolean(incremental.toString());
+			if(enabled != (this.incrementalSync != null)) {
+				this.incrementalSync = enabled ? new IncrementalSync() : null;
+			}
+		}
+		return this;
+	}
+	
 	public Path getRoot() {
 		return this.root;
 	}
 	
 	public void remove(ZipPath zipFile) {
-		byte[] path = ZipFSReflect.ZipPath.getResolvedPath(zipFile.delegate);
-		this.pathCache.remove(new ByteArrayWrapper(path));
+		this.pathCache.remove(zipFile);
 	}
 	
 	public Path wrap(Path zipFile) {
@@ -47,11 +172,8 @@ public class BetterZipFS extends FileSystem {
 	}
 	
 	//[47, 116, 101, 115, 116, 46, 116, 120, 116]
-	public ZipPath wrapCached(Path zipFile, ZipPath alternative) {
-		byte[] path = ZipFSReflect.ZipPath.getResolvedPath(zipFile);
-		ByteArrayWrapper wrapper = new ByteArrayWrapper(path);
-		ZipPath paths = this.pathCache.putIfAbsent(wrapper, alternative);
-		return paths == null ? alternative : paths;
+	public ZipPath wrapCached(ZipPath alternative) {
+		return this.pathCache.putIfAbsent(alternative);
 	}
 	
 	@Override
@@ -61,10 +183,42 @@ public class BetterZipFS extends FileSystem {
 	
 	@Override
 	public void close() throws IOException {
-		for(ZipPath value : this.pathCache.values()) {
+		synchronized(this) {
+			this.awaitSync();
+			if(this.writer != null) {
+				this.writer.shutdown();
+			}
+		}
+		long deflated = this.stats.bytesDeflated.sum();
+		if(this.syncExecutor != null) {
+			this.flush(null); // deflates the pending entries on the executor instead of one at a time below
+		}
+		for(ZipPath value : this.pathCache) {
 			value.deleteContents(null);
 		}
-		this.zipfs.close();
+		deflated = this.stats.bytesDeflated.sum() - deflated;
+		long start = System.nanoTime();
+		StreamingZip streaming = this.streaming;
+		if(streaming != null) {
+			try {
+				streaming.close(this.zipfs);
+			} finally {
+				this.zipfs.close();
+			}
+		} else if(!this.zipfs.isReadOnly() && this.zipfs.isOpen()) {
+			ZipFSEvents.Sync event = new ZipFSEvents.Sync();
+			event.begin();
+			IncrementalSync incremental = this.incrementalSync;
+			if(incremental != null) {
+				incremental.sync(this.zipfs, true); // if it can't, close rewrites the zip as usual
+			}
+			int entries = ZipFSReflect.ZipFS.getInodes(this.zipfs).size();
+			this.zipfs.close();
+			ZipFSEvents.commit(event, ZipFSReflect.ZipFS.getZipFile(this.zipfs), entries, deflated);
+		} else {
+			this.zipfs.close();
+		}
+		this.stats.syncs.record(System.nanoTime() - start);
 		ZipFSProvider.FILE_SYSTEMS.remove(this.zipfs, this);
 	}
 	
@@ -124,17 +278,132 @@ public class BetterZipFS extends FileSystem {
 		return this.zipfs.toString();
 	}
 	
+	/**
+	 * writes pending channels to the zip file system and the zip file system to disk
+	 * @param executor where to write pending channels and deflate their entries, or null for the common pool
+	 */
+	public void sync(Executor executor) {
+		long deflated = this.stats.bytesDeflated.sum();
+		this.flush(null, executor);
+		this.syncFlushed(this.stats.bytesDeflated.sum() - deflated);
+	}
+	
+	/**
+	 * writes pending channels to the zip file system, and then writes the zip file system to disk on this file system's writer thread. At most
+	 * one of these is in flight at a time, if one already is this waits for it to finish first.
+	 * @param executor where to write pending channels and deflate their entries, or null for the common pool
+	 */
+	public CompletableFuture<Void> syncAsync(Executor executor) {
+		long start = this.stats.bytesDeflated.sum();
+		this.flush(null, executor);
+		long deflated = this.stats.bytesDeflated.sum() - start;
+		synchronized(this) {
+			this.awaitSync();
+			if(this.writer == null) {
+				this.writer = Executors.newSingleThreadExecutor(r -> {
+					Thread thread = new Thread(r, "BetterZipFS sync " + this.zipfs);
+					thread.setDaemon(true);
+					return thread;
+				});
+			}
+			return this.inFlight = CompletableFuture.runAsync(() -> this.syncFlushed(deflated), this.writer);
+		}
+	}
+	
+	private void awaitSync() {
+		CompletableFuture<Void> previous = this.inFlight;
+		if(previous != null) {
+			previous.handle((v, t) -> null).join(); // the caller that started it deals with its failure
+			this.inFlight = null;
+		}
+	}
+	
+	/**
+	 * @param deflated the uncompressed size of the entries that were deflated while flushing for this sync
+	 */
+	private void syncFlushed(long deflated) {
+		if(this.streaming != null) {
+			return; // flushing already wrote the entries, and the central directory can only be written once
+		}
+		long start = System.nanoTime();
+		sync(this.zipfs, this.incrementalSync, deflated);
+		this.stats.syncs.record(System.nanoTime() - start);
+	}
+	
+	/**
+	 * writes a zip file system to disk, zipfs has already deflated its entries when their channels were closed
+	 */
+	public static void sync(FileSystem zipfs) {
+		sync(zipfs, null, 0);
+	}
+	
+	static void sync(FileSystem zipfs, IncrementalSync incremental, long deflated) {
+		ZipFSEvents.Sync event = new ZipFSEvents.Sync();
+		event.begin();
+		boolean synced;
+		try {
+			synced = incremental != null && incremental.sync(zipfs, false);
+		} catch(IOException e) {
+			throw ZipFSReflect.rethrow(e);
+		}
+		if(!synced) {
+			ZipFSReflect.ZipFS.sync(zipfs);
+		}
+		ZipFSEvents.commit(event, ZipFSReflect.ZipFS.getZipFile(zipfs), ZipFSReflect.ZipFS.getInodes(zipfs).size(), deflated);
+	}
+	
 	public void flush(Path path) {
-		Stream<ZipPath> stream = this.pathCache.values().stream().parallel();
+		this.flush(path, this.syncExecutor);
+	}
+	
+	/**
+	 * writes the pending channels of the cached paths in the given directory (or all of them if null) to the zip file system
+	 * @param executor where to write pending channels and deflate their entries, or null to flush every path in parallel on the common pool
+	 */
+	public void flush(Path path, Executor executor) {
+		ZipFSEvents.Flush event = new ZipFSEvents.Flush();
+		event.begin();
+		long start = System.nanoTime();
+		Stream<ZipPath> stream = this.pathCache.stream();
 		if(path != null) {
 			stream = stream.filter(z -> z.startsWith(path));
 		}
-		stream.forEach(z -> {
+		long paths;
+		if(executor == null) {
+			paths = stream.parallel().mapToLong(BetterZipFS::flushContents).sum();
+		} else {
+			// only pending writes have anything to deflate, the rest just drop their copy
+			List<CompletableFuture<?>> writes = new ArrayList<>();
+			paths = stream.mapToLong(z -> {
+				ZipPath.ZipContents contents = z.contents;
+				if(contents != null && contents.isWrite) {
+					writes.add(CompletableFuture.runAsync(() -> flushContents(z), executor));
+					return 1;
+				}
+				return flushContents(z);
+			}).sum();
 			try {
-				z.flushContents();
-			} catch(IOException e) {
-				throw ZipFSReflect.rethrow(e);
+				CompletableFuture.allOf(writes.toArray(CompletableFuture[]::new)).join();
+			} catch(CompletionException e) {
+				throw ZipFSReflect.rethrow(e.getCause());
 			}
-		});
+		}
+		this.stats.flushes.record(System.nanoTime() - start);
+		event.end();
+		if(event.shouldCommit()) {
+			event.archive = ZipFSReflect.ZipFS.getZipFile(this.zipfs).toString();
+			event.directory = path == null ? null : path.toString();
+			event.paths = paths;
+			event.commit();
+		}
+	}
+	
+	private static long flushContents(ZipPath path) {
+		try {
+			path.flushContents();
+			return 1;
+		} catch(IOException e) {
+			throw ZipFSReflect.rethrow(e);
+		}
 	}
-}
+}
\ No newline at end of file
@@ -0,0 +1,83 @@
+package net.devtech.betterzipfs.impl;
+
+import java.nio.file.Path;
+import java.nio.file.PathMatcher;
+import java.util.Locale;
+import java.util.Set;
+import java.util.zip.Deflater;
+
+/**
+ * Chooses how each entry written to a {@link BetterZipFS} is compressed, set with {@link BetterZipFS#COMPRESSION_POLICY}. Whatever the
+ * policy chooses, entries that don't get smaller when deflated are stored.
+ */
+@FunctionalInterface
+public interface CompressionPolicy {
+	/**
+	 * store the entry uncompressed
+	 */
+	int STORED = -2;
+	int DEFAULT = Deflater.DEFAULT_COMPRESSION;
+	
+	/**
+	 * file extensions of formats that are already compressed
+	 */
+	Set<String> ALREADY_COMPRESSED = Set.of("png", "jpg", "jpeg", "gif", "webp", "ogg", "mp3", "mp4", "zip", "jar", "gz", "xz", "bz2", "zst", "7z");
+	
+	/**
+	 * @param path the entry being written
+	 * @param data the uncompressed contents of the entry, or only the start of them for files {@link ZipPacker} streams because they're too
+	 * large to hold in memory
+	 * @return {@link #STORED}, or the deflate level (0-9 or {@link #DEFAULT})
+	 */
+	int level(Path path, byte[] data);
+	
+	static CompressionPolicy level(int level) {
+		return (path, data) -> level;
+	}
+	
+	/**
+	 * stores entries with one of the given (lowercase) file extensions, and deflates the rest at {@code level}
+	 */
+	static CompressionPolicy byExtension(Set<String> stored, int level) {
+		return (path, data) -> {
+			Path fileName = path.getFileName();
+			String name = fileName == null ? "" : fileName.toString();
+			int dot = name.lastIndexOf('.');
+			return dot != -1 && stored.contains(name.substring(dot + 1).toLowerCase(Locale.ROOT)) ? STORED : level;
+		};
+	}
+	
+	/**
+	 * uses {@code level} for entries matching the glob, and {@code otherwise} for the rest
+	 * @see java.nio.file.FileSystem#getPathMatcher(String)
+	 */
+	static CompressionPolicy glob(String glob, int level, CompressionPolicy otherwise) {
+		return new CompressionPolicy() {
+			volatile PathMatcher matcher; // zipfs matchers match against the path's string, so any zip's will do
+			
+			@Override
+			public int level(Path path, byte[] data) {
+				PathMatcher matcher = this.matcher;
+				if(matcher == null) {
+					this.matcher = matcher = path.getFileSystem().getPathMatcher("glob:" + glob);
+				}
+				return matcher.matches(path) ? level : otherwise.level(path, data);
+			}
+		};
+	}
+	
+	/**
+	 * deflates the start of each entry at the fastest level, and stores the entry if that didn't save at least {@code minSavings} (0-1) of it
+	 * @param sampleSize how many bytes of the entry to try deflating
+	 */
+	static CompressionPolicy adaptive(int sampleSize, double minSavings, int level) {
+		return (path, data) -> {
+			int length = Math.min(sampleSize, data.length);
+			if(length == 0) {
+				return level;
+			}
+			int compressed = Deflation.deflate(data, length, Deflater.BEST_SPEED).length;
+			return compressed > length * (1 - minSavings) ? STORED : level;
+		};
+	}
+}
@@ -0,0 +1,83 @@
+package net.devtech.betterzipfs.impl;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.List;
+import java.util.function.Predicate;
+
+/**
+ * Decides what ends up in the output when more than one of the zips being merged has an entry with the same name. Directories always keep
+ * the first one.
+ *
+ * @see ZipMerger
+ */
+@FunctionalInterface
+public interface ConflictStrategy {
+	/**
+	 * returned from {@link #choose(String, int)} to merge the contents of the entries with {@link #merge(String, List)}
+	 */
+	int MERGE = -1;
+	
+	ConflictStrategy FIRST_WINS = (name, count) -> 0;
+	ConflictStrategy LAST_WINS = (name, count) -> count - 1;
+	
+	/**
+	 * concatenates the entries, separated by newlines, for service files and the like
+	 */
+	Merger CONCATENATE_LINES = (name, contents) -> {
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		for(byte[] content : contents) {
+			out.write(content);
+			if(content.length > 0 && content[content.length - 1] != '\n') {
+				out.write('\n');
+			}
+		}
+		return out.toByteArray();
+	};
+	
+	/**
+	 * @param name the name of the entry, '/' separated without a leading '/'
+	 * @param count the number of zips that have the entry
+	 * @return the index (among the zips that have the entry, in the order they were given) of the entry to copy as is, or {@link #MERGE}
+	 */
+	int choose(String name, int count);
+	
+	/**
+	 * only called if {@link #choose(String, int)} returns {@link #MERGE}
+	 *
+	 * @param contents the uncompressed contents of each entry, in the order the zips were given
+	 * @return the uncompressed contents of the merged entry
+	 */
+	default byte[] merge(String name, List<byte[]> contents) throws IOException {
+		throw new UnsupportedOperationException("no merger for " + name);
+	}
+	
+	/**
+	 * merges conflicting entries in {@code META-INF/services} by concatenating them, and resolves the rest with {@code otherwise}
+	 */
+	static ConflictStrategy mergeServices(ConflictStrategy otherwise) {
+		return merging(name -> name.startsWith("META-INF/services/"), CONCATENATE_LINES, otherwise);
+	}
+	
+	/**
+	 * merges conflicting entries whose names match {@code names} with {@code merger}, and resolves the rest with {@code otherwise}
+	 */
+	static ConflictStrategy merging(Predicate<String> names, Merger merger, ConflictStrategy otherwise) {
+		return new ConflictStrategy() {
+			@Override
+			public int choose(String name, int count) {
+				return names.test(name) ? MERGE : otherwise.choose(name, count);
+			}
+			
+			@Override
+			public byte[] merge(String name, List<byte[]> contents) throws IOException {
+				return names.test(name) ? merger.merge(name, contents) : otherwise.merge(name, contents);
+			}
+		};
+	}
+	
+	@FunctionalInterface
+	interface Merger {
+		byte[] merge(String name, List<byte[]> contents) throws IOException;
+	}
+}
@@ -0,0 +1,103 @@
+package net.devtech.betterzipfs.impl;
+
+import java.nio.channels.SeekableByteChannel;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Keeps track of the contents cached in {@link ZipPath.ZipContents}, and evicts the least recently used ones once their total size exceeds the
+ * budget. Evicted contents are simply read from the zip file again the next time they are opened.
+ * <p>
+ * Recency is approximated with a clock: a hit only sets the contents' reference bit, and eviction gives referenced contents a second chance
+ * instead of reordering the cache on every hit.
+ */
+public final class ContentCache {
+	public static final long DEFAULT_BUDGET = 128L * 1024 * 1024;
+	
+	private final LinkedHashMap<ZipPath.ZipContents, Cached> entries = new LinkedHashMap<>();
+	private final LongAdder hits = new LongAdder(), misses = new LongAdder();
+	private long size;
+	volatile long budget = DEFAULT_BUDGET;
+	/**
+	 * whether copied contents should be stored in direct buffers instead of the heap
+	 */
+	volatile boolean direct;
+	
+	record Cached(SeekableByteChannel channel, long size) {}
+	
+	public long hits() {
+		return this.hits.sum();
+	}
+	
+	public long misses() {
+		return this.misses.sum();
+	}
+	
+	/**
+	 * @return the total size of the cached contents in bytes
+	 */
+	public synchronized long size() {
+		return this.size;
+	}
+	
+	public long budget() {
+		return this.budget;
+	}
+	
+	void hit(ZipPath.ZipContents contents) {
+		this.hits.increment();
+		if(!contents.referenced) { // only write when unset, so concurrent hits on a hot entry only read it
+			contents.referenced = true;
+		}
+	}
+	
+	void miss() {
+		this.misses.increment();
+	}
+	
+	synchronized void add(ZipPath.ZipContents contents, SeekableByteChannel channel, long size) {
+		Cached old = this.entries.put(contents, new Cached(channel, size));
+		this.size += size - (old == null ? 0 : old.size);
+		this.evict();
+	}
+	
+	synchronized void remove(ZipPath.ZipContents contents) {
+		Cached old = this.entries.remove(contents);
+		if(old != null) {
+			this.size -= old.size;
+		}
+	}
+	
+	private void evict() {
+		List<Map.Entry<ZipPath.ZipContents, Cached>> referenced = new ArrayList<>();
+		do {
+			referenced.clear();
+			Iterator<Map.Entry<ZipPath.ZipContents, Cached>> iterator = this.entries.entrySet().iterator();
+			while(this.size > this.budget && iterator.hasNext()) {
+				Map.Entry<ZipPath.ZipContents, Cached> entry = iterator.next();
+				ZipPath.ZipContents contents = entry.getKey();
+				Cached cached = entry.getValue();
+				if(contents.isWrite) { // pending writes can't be dropped, they aren't in the zip yet
+					continue;
+				}
+				if(contents.referenced) { // second chance, moved to the back of the clock
+					contents.referenced = false;
+					referenced.add(Map.entry(contents, cached));
+					iterator.remove();
+					continue;
+				}
+				// open channels keep their reference, only the cache's is dropped
+				ZipPath.evict(contents, cached.channel);
+				iterator.remove();
+				this.size -= cached.size;
+			}
+			for(Map.Entry<ZipPath.ZipContents, Cached> entry : referenced) {
+				this.entries.put(entry.getKey(), entry.getValue());
+			}
+		} while(this.size > this.budget && !referenced.isEmpty()); // every bit is cleared now, the next pass evicts
+	}
+}
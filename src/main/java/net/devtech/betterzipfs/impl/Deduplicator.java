@@ -0,0 +1,152 @@
+package net.devtech.betterzipfs.impl;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.FileSystem;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.Arrays;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.zip.DataFormatException;
+import java.util.zip.Inflater;
+
+/**
+ * Indexes the compressed contents of a zip's entries by (crc, size, method), so entries written with the same contents can share the
+ * compressed bytes of the first one instead of being compressed and held in memory again. Matches are always checked byte for byte, the key
+ * only finds candidates.
+ */
+public class Deduplicator {
+	record Key(long crc, long size, int method) {}
+	
+	record Name(byte[] name) {}
+	
+	private final FileSystem zipfs;
+	/**
+	 * the names of entries rather than the entries themselves, so replaced entries and the contents of unchanged ones aren't kept in memory,
+	 * they're looked up again whenever they're a candidate
+	 */
+	private final Map<Key, Name> index = new ConcurrentHashMap<>();
+	private final LongAdder hits = new LongAdder();
+	private volatile boolean indexedZip;
+	
+	public Deduplicator(FileSystem zipfs) {
+		this.zipfs = zipfs;
+	}
+	
+	public long hits() {
+		return this.hits.sum();
+	}
+	
+	/**
+	 * @param crc the crc-32 of {@code data}
+	 * @param data the uncompressed contents of an entry
+	 * @return the compressed bytes of an entry with the same contents and compression method, or null if there isn't one
+	 */
+	byte[] find(long crc, byte[] data, int method) throws IOException {
+		byte[] compressed = this.find(new Key(crc, data.length, method));
+		if(compressed != null && matches(compressed, method, data)) {
+			this.hits.increment();
+			return compressed;
+		}
+		return null;
+	}
+	
+	/**
+	 * adds an entry that has just been written or copied to the index
+	 */
+	void add(BasicFileAttributes entry) {
+		if(ZipFSReflect.Entry.getType(entry) == ZipFSReflect.Entry.TYPE_NEW && ZipFSReflect.Entry.getBytes(entry) != null && Deflation.isCompressed(entry)) {
+			this.index.putIfAbsent(key(entry), new Name(ZipFSReflect.IndexNode.getName(entry)));
+		}
+	}
+	
+	/**
+	 * @param bytes the compressed contents of the entry
+	 * @return the compressed bytes of an entry with the same contents, or {@code bytes} if there are none
+	 */
+	byte[] canonical(BasicFileAttributes entry, byte[] bytes) throws IOException {
+		byte[] existing = this.find(key(entry));
+		if(existing != null && existing != bytes && Arrays.equals(existing, bytes)) {
+			this.hits.increment();
+			return existing;
+		}
+		return bytes;
+	}
+	
+	private byte[] find(Key key) throws IOException {
+		if(!this.indexedZip) {
+			this.indexZip();
+		}
+		Name candidate = this.index.get(key);
+		if(candidate == null) {
+			return null;
+		}
+		BasicFileAttributes entry = ZipFSReflect.ZipFS.getEntry(this.zipfs, candidate.name());
+		if(entry == null || !key.equals(key(entry))) { // since replaced or deleted
+			this.index.remove(key, candidate);
+			return null;
+		}
+		int type = ZipFSReflect.Entry.getType(entry);
+		byte[] bytes = ZipFSReflect.Entry.getBytes(entry);
+		if(type == ZipFSReflect.Entry.TYPE_NEW && bytes != null && Deflation.isCompressed(entry)) {
+			return bytes;
+		} else if(type == ZipFSReflect.Entry.TYPE_CEN || type == ZipFSReflect.Entry.TYPE_COPY) {
+			try(InputStream stream = ZipFSReflect.Entry.getCENInputStream(this.zipfs, entry)) {
+				return stream.readAllBytes();
+			}
+		}
+		return null;
+	}
+	
+	/**
+	 * adds the unchanged entries of the zip file to the index
+	 */
+	private synchronized void indexZip() {
+		if(this.indexedZip) {
+			return;
+		}
+		FileSystem zipfs = this.zipfs;
+		byte[] cen = ZipFSReflect.Records.isSupported() ? ZipFSReflect.Records.getCEN(zipfs) : null;
+		InodeSpliterator.of(zipfs, inode -> inode).forEachRemaining(inode -> {
+			if(!(inode instanceof BasicFileAttributes) && !ZipFSReflect.IndexNode.isDirectory(inode) && ZipFSReflect.IndexNode.getPos(inode) != -1) {
+				EntryMetadata metadata = EntryMetadata.of(zipfs, zipfs, cen, inode);
+				this.index.putIfAbsent(new Key(metadata.crc(), metadata.size(), metadata.method()), new Name(metadata.name()));
+			}
+		});
+		this.indexedZip = true;
+	}
+	
+	static Key key(BasicFileAttributes entry) {
+		return new Key(ZipFSReflect.Entry.getCRC(entry), ZipFSReflect.Entry.getSize(entry), ZipFSReflect.Entry.getCompressionMethod(entry));
+	}
+	
+	static boolean matches(byte[] compressed, int method, byte[] data) {
+		if(method == ZipFSReflect.Entry.METHOD_STORED) {
+			return Arrays.equals(compressed, data);
+		} else if(method != ZipFSReflect.Entry.METHOD_DEFLATED) {
+			return false;
+		}
+		Inflater inflater = new Inflater(true);
+		try {
+			inflater.setInput(compressed);
+			byte[] buffer = new byte[8192];
+			int off = 0;
+			while(!inflater.finished()) {
+				int len = inflater.inflate(buffer);
+				if(len == 0 && (inflater.needsInput() || inflater.needsDictionary())) {
+					return false;
+				}
+				if(off + len > data.length || !Arrays.equals(buffer, 0, len, data, off, off + len)) {
+					return false;
+				}
+				off += len;
+			}
+			return off == data.length;
+		} catch(DataFormatException e) {
+			return false;
+		} finally {
+			inflater.end();
+		}
+	}
+}
@@ -0,0 +1,43 @@
+package net.devtech.betterzipfs.impl;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.zip.Deflater;
+
+/**
+ * Deflates entries with a {@link Deflater} kept per thread, for the places that compress entries themselves instead of leaving it to zipfs,
+ * like {@link EntryWriter}, {@link ZipPacker} and {@link ZipMerger}.
+ */
+public class Deflation {
+	private static final ThreadLocal<Deflater> DEFLATER = ThreadLocal.withInitial(() -> new Deflater(Deflater.DEFAULT_COMPRESSION, true));
+	private static final ThreadLocal<byte[]> BUFFER = ThreadLocal.withInitial(() -> new byte[8192]);
+	
+	/**
+	 * the check ZipFileSystem#writeEntry uses to decide whether a new entry is already compressed
+	 */
+	static boolean isCompressed(BasicFileAttributes entry) {
+		long csize = ZipFSReflect.Entry.getCSize(entry), crc = ZipFSReflect.Entry.getCRC(entry), size = ZipFSReflect.Entry.getSize(entry);
+		return csize > 0 && (crc != 0 || size == 0);
+	}
+	
+	/**
+	 * @return the first {@code length} bytes of {@code input} deflated without a zlib header
+	 */
+	static byte[] deflate(byte[] input, int length, int level) {
+		Deflater deflater = DEFLATER.get();
+		byte[] buffer = BUFFER.get();
+		ByteArrayOutputStream output = new ByteArrayOutputStream(Math.max(64, length / 2));
+		try {
+			deflater.setLevel(level);
+			deflater.setInput(input, 0, length);
+			deflater.finish();
+			while(!deflater.finished()) {
+				int len = deflater.deflate(buffer);
+				output.write(buffer, 0, len);
+			}
+		} finally {
+			deflater.reset();
+		}
+		return output.toByteArray();
+	}
+}
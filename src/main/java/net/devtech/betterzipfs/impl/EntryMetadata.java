@@ -0,0 +1,131 @@
+package net.devtech.betterzipfs.impl;
+
+import java.nio.file.FileSystem;
+import java.nio.file.Path;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.time.Instant;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+
+/**
+ * The metadata of a zip entry, read straight out of the zip's central directory or the file system's modified entry, without looking the
+ * entry up.
+ *
+ * @param fileSystem the file system {@link #path()} is created in
+ * @param name the absolute path of the entry, '/' separated
+ * @param compressedSize the size of the entry in the zip, new entries that haven't been compressed yet report their uncompressed size or
+ * 		0 until the zip is synced
+ * @param crc the crc-32 of the uncompressed contents, 0 for new entries that haven't been compressed yet
+ * @param method the compression method, {@link ZipFSReflect.Entry#METHOD_STORED} or {@link ZipFSReflect.Entry#METHOD_DEFLATED}
+ * @param lastModifiedTime in milliseconds since the epoch, -1 for directories that don't have an entry of their own
+ */
+public record EntryMetadata(FileSystem fileSystem,
+                            byte[] name,
+                            boolean isDirectory,
+                            long size,
+                            long compressedSize,
+                            long crc,
+                            int method,
+                            long lastModifiedTime) {
+	static final int EXTID_ZIP64 = 0x0001, EXTID_NTFS = 0x000a, EXTID_EXTT = 0x5455;
+	static final long ZIP64_MINVAL = 0xFFFFFFFFL;
+	static final long WINDOWS_EPOCH_OFFSET = 11644473600000L;
+	
+	/**
+	 * @param fileSystem the {@link BetterZipFS} or ZipFileSystem {@code zipfs} belongs to
+	 * @param cen the zip's central directory, or null to read unchanged entries through the file system
+	 */
+	static EntryMetadata of(FileSystem fileSystem, FileSystem zipfs, byte[] cen, Object inode) {
+		byte[] name = ZipFSReflect.IndexNode.getName(inode);
+		boolean isDirectory = ZipFSReflect.IndexNode.isDirectory(inode);
+		if(inode instanceof BasicFileAttributes entry) {
+			return new EntryMetadata(fileSystem, name, isDirectory, ZipFSReflect.Entry.getSize(entry), ZipFSReflect.Entry.getCSize(entry),
+					ZipFSReflect.Entry.getCRC(entry), ZipFSReflect.Entry.getCompressionMethod(entry), ZipFSReflect.Entry.getMTime(entry));
+		}
+		
+		int pos = ZipFSReflect.IndexNode.getPos(inode);
+		if(pos == -1) { // pseudo directory
+			return new EntryMetadata(fileSystem, name, true, 0, 0, 0, ZipFSReflect.Entry.METHOD_STORED, -1);
+		}
+		if(cen == null) {
+			BasicFileAttributes entry = ZipFSReflect.ZipFS.getEntry(zipfs, name);
+			return new EntryMetadata(fileSystem, name, isDirectory, entry.size(), ZipFSReflect.Entry.getCSize(entry), ZipFSReflect.Entry.getCRC(entry),
+					ZipFSReflect.Entry.getCompressionMethod(entry), entry.lastModifiedTime().toMillis());
+		}
+		
+		int method = u16(cen, pos + 10);
+		long mtime = dosToJavaTime(u32(cen, pos + 12)), crc = u32(cen, pos + 16), csize = u32(cen, pos + 20), size = u32(cen, pos + 24);
+		int nlen = u16(cen, pos + 28), elen = u16(cen, pos + 30);
+		int off = pos + ZipFSReflect.Records.CENHDR + nlen, end = off + elen;
+		while(off + 4 <= end) {
+			int tag = u16(cen, off), sz = u16(cen, off + 2), data = off + 4;
+			off = data + sz;
+			if(off > end) {
+				break;
+			}
+			if(tag == EXTID_ZIP64) {
+				if(size == ZIP64_MINVAL && data + 8 <= off) {
+					size = u64(cen, data);
+					data += 8;
+				}
+				if(csize == ZIP64_MINVAL && data + 8 <= off) {
+					csize = u64(cen, data);
+				}
+			} else if(tag == EXTID_EXTT) {
+				if(sz >= 5 && (cen[data] & 1) != 0) {
+					mtime = u32(cen, data + 1) * 1000;
+				}
+			} else if(tag == EXTID_NTFS) {
+				// reserved(4), attribute tag(2), size(2), mtime(8)
+				if(sz >= 32 && u16(cen, data + 4) == 0x0001 && u16(cen, data + 6) == 24) {
+					mtime = u64(cen, data + 8) / 10_000 - WINDOWS_EPOCH_OFFSET;
+				}
+			}
+		}
+		return new EntryMetadata(fileSystem, name, isDirectory, size, csize, crc, method, mtime);
+	}
+	
+	/**
+	 * @return a path to the entry, paths aren't created until this is called
+	 */
+	public Path path() {
+		if(this.fileSystem instanceof BetterZipFS z) {
+			return new ZipPath(z, ZipFSReflect.ZipPath.fromName(z.zipfs, this.name, true));
+		}
+		return ZipFSReflect.ZipPath.fromName(this.fileSystem, this.name, true);
+	}
+	
+	/**
+	 * dos times are in local time, and don't need to be valid dates
+	 */
+	static long dosToJavaTime(long dtime) {
+		LocalDateTime time = LocalDateTime.of((int) ((dtime >> 25) & 0x7f) + 1980, 1, 1, 0, 0)
+		                                  .plusMonths(((dtime >> 21) & 0x0f) - 1)
+		                                  .plusDays(((dtime >> 16) & 0x1f) - 1)
+		                                  .plusHours((dtime >> 11) & 0x1f)
+		                                  .plusMinutes((dtime >> 5) & 0x3f)
+		                                  .plusSeconds((dtime << 1) & 0x3e);
+		return time.atZone(ZoneId.systemDefault()).toInstant().toEpochMilli();
+	}
+	
+	static long javaToDosTime(long time) {
+		LocalDateTime date = LocalDateTime.ofInstant(Instant.ofEpochMilli(time), ZoneId.systemDefault());
+		int year = date.getYear() - 1980;
+		if(year < 0) {
+			return 1 << 21 | 1 << 16; // 1980-01-01, the earliest dos time
+		}
+		return (long) year << 25 | date.getMonthValue() << 21 | date.getDayOfMonth() << 16 | date.getHour() << 11 | date.getMinute() << 5 | date.getSecond() >> 1;
+	}
+	
+	static int u16(byte[] bytes, int off) {
+		return (bytes[off] & 0xff) | (bytes[off + 1] & 0xff) << 8;
+	}
+	
+	static long u32(byte[] bytes, int off) {
+		return (u16(bytes, off) | (long) u16(bytes, off + 2) << 16) & 0xffffffffL;
+	}
+	
+	static long u64(byte[] bytes, int off) {
+		return u32(bytes, off) | u32(bytes, off + 4) << 32;
+	}
+}
@@ -0,0 +1,121 @@
+package net.devtech.betterzipfs.impl;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.NonWritableChannelException;
+import java.nio.channels.SeekableByteChannel;
+import java.util.concurrent.Callable;
+
+/**
+ * A read only channel that streams an entry's contents instead of copying them into memory, used for entries too large to be cached. Seeking
+ * forwards skips through the stream, seeking backwards reopens it.
+ */
+class EntryStreamChannel implements SeekableByteChannel {
+	/**
+	 * entries at least this large are streamed rather than cached
+	 */
+	static final long THRESHOLD = 1L << 30;
+	
+	final Callable<InputStream> open;
+	final long size;
+	InputStream stream;
+	long streamPosition, position;
+	boolean isOpen = true;
+	byte[] buffer;
+	
+	EntryStreamChannel(Callable<InputStream> open, long size) {
+		this.open = open;
+		this.size = size;
+	}
+	
+	@Override
+	public synchronized int read(ByteBuffer dst) throws IOException {
+		if(this.position >= this.size) {
+			return -1;
+		}
+		InputStream stream = this.seek();
+		int read;
+		if(dst.hasArray()) {
+			read = stream.read(dst.array(), dst.arrayOffset() + dst.position(), dst.remaining());
+			if(read > 0) {
+				dst.position(dst.position() + read);
+			}
+		} else {
+			byte[] buffer = this.buffer;
+			if(buffer == null) {
+				this.buffer = buffer = new byte[8192];
+			}
+			read = stream.read(buffer, 0, Math.min(buffer.length, dst.remaining()));
+			if(read > 0) {
+				dst.put(buffer, 0, read);
+			}
+		}
+		if(read > 0) {
+			this.position += read;
+			this.streamPosition += read;
+		}
+		return read;
+	}
+	
+	private InputStream seek() throws IOException {
+		InputStream stream = this.stream;
+		if(stream == null || this.streamPosition > this.position) {
+			if(stream != null) {
+				stream.close();
+			}
+			try {
+				this.stream = stream = this.open.call();
+			} catch(Exception e) {
+				throw ZipFSReflect.rethrow(e);
+			}
+			this.streamPosition = 0;
+		}
+		stream.skipNBytes(this.position - this.streamPosition);
+		this.streamPosition = this.position;
+		return stream;
+	}
+	
+	@Override
+	public int write(ByteBuffer src) {
+		throw new NonWritableChannelException();
+	}
+	
+	@Override
+	public synchronized long position() {
+		return this.position;
+	}
+	
+	@Override
+	public synchronized SeekableByteChannel position(long newPosition) {
+		if(newPosition < 0) {
+			throw new IllegalArgumentException("negative position " + newPosition);
+		}
+		this.position = newPosition;
+		return this;
+	}
+	
+	@Override
+	public long size() {
+		return this.size;
+	}
+	
+	@Override
+	public SeekableByteChannel truncate(long size) {
+		throw new NonWritableChannelException();
+	}
+	
+	@Override
+	public synchronized boolean isOpen() {
+		return this.isOpen;
+	}
+	
+	@Override
+	public synchronized void close() throws IOException {
+		this.isOpen = false;
+		if(this.stream != null) {
+			this.stream.close();
+			this.stream = null;
+		}
+	}
+}
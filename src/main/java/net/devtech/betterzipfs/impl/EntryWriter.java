@@ -0,0 +1,80 @@
+package net.devtech.betterzipfs.impl;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.SeekableByteChannel;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.zip.CRC32;
+
+/**
+ * Writes the contents of a channel zipfs opened for writing to its entry, instead of closing the channel and letting zipfs deflate them, so
+ * the {@link CompressionPolicy} and {@link Deduplicator} of the file system get a say, or straight to the zip file if it's a
+ * {@link StreamingZip}. With a {@link BetterZipFS#syncExecutor} this runs on it, so the entry is deflated there with the thread's own
+ * deflater.
+ */
+class EntryWriter {
+	/**
+	 * @param contents a copy of the channel's contents
+	 * @return true if the entry was written, and the channel should be dropped instead of closed
+	 */
+	static boolean write(ZipPath path, SeekableByteChannel channel, SeekableByteChannelCopy contents) throws IOException {
+		BetterZipFS fs = path.fs;
+		CompressionPolicy policy = fs.compressionPolicy;
+		Deduplicator deduplicator = fs.deduplicator;
+		StreamingZip streaming = fs.streaming;
+		boolean deflate = fs.syncExecutor != null;
+		if(policy == null && deduplicator == null && streaming == null && !deflate) {
+			return false;
+		}
+		BasicFileAttributes entry = ZipFSReflect.Entry.ofOutputChannel(channel);
+		long size = contents.size();
+		if(entry == null || size > Integer.MAX_VALUE - 8) {
+			return false;
+		}
+		
+		byte[] data = contents.array();
+		if(data == null) {
+			data = new byte[(int) size];
+			ByteBuffer buffer = ByteBuffer.wrap(data);
+			while(buffer.hasRemaining()) {
+				contents.read(buffer, buffer.position());
+			}
+		}
+		CRC32 crc = new CRC32();
+		crc.update(data);
+		
+		int method = ZipFSReflect.Entry.getCompressionMethod(entry), level = CompressionPolicy.DEFAULT;
+		if(policy != null) {
+			level = policy.level(path, data);
+			method = level == CompressionPolicy.STORED ? ZipFSReflect.Entry.METHOD_STORED : ZipFSReflect.Entry.METHOD_DEFLATED;
+		}
+		byte[] compressed = deduplicator == null || streaming != null ? null : deduplicator.find(crc.getValue(), data, method);
+		if(compressed == null) { // compressed here rather than by zipfs, which would copy and checksum the contents again
+			if(method == ZipFSReflect.Entry.METHOD_DEFLATED) {
+				compressed = Deflation.deflate(data, data.length, level);
+				fs.stats.bytesDeflated.add(size);
+				if(compressed.length >= data.length) {
+					method = ZipFSReflect.Entry.METHOD_STORED;
+				}
+			}
+			if(method == ZipFSReflect.Entry.METHOD_STORED) {
+				compressed = data;
+			}
+		}
+		
+		if(streaming != null) {
+			streaming.write(fs.zipfs, entry, method, crc.getValue(), size, compressed);
+			return true;
+		}
+		ZipFSReflect.Entry.setCompressionMethod(entry, method);
+		ZipFSReflect.Entry.setBytes(entry, compressed);
+		ZipFSReflect.Entry.setCRC(entry, crc.getValue());
+		ZipFSReflect.Entry.setSize(entry, size);
+		ZipFSReflect.Entry.setCSize(entry, compressed.length);
+		ZipFSReflect.ZipFS.update(fs.zipfs, entry);
+		if(deduplicator != null) {
+			deduplicator.add(entry);
+		}
+		return true;
+	}
+}
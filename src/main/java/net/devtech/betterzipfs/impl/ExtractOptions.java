@@ -0,0 +1,28 @@
+package net.devtech.betterzipfs.impl;
+
+import java.util.concurrent.Executor;
+import java.util.concurrent.ForkJoinPool;
+
+/**
+ * How {@link ZipExtractor} extracts a zip.
+ *
+ * @param executor where files are inflated and written, each task extracts a run of files that are next to each other in the zip, up to 256
+ * files or 4MB of compressed contents
+ * @param replaceExisting whether files that already exist in the target directory are replaced, otherwise extracting one fails
+ * @param preserveTimes whether extracted files and directories get the modification times of their entries
+ */
+public record ExtractOptions(Executor executor, boolean replaceExisting, boolean preserveTimes) {
+	public static final ExtractOptions DEFAULT = new ExtractOptions(ForkJoinPool.commonPool(), false, true);
+	
+	public ExtractOptions withExecutor(Executor executor) {
+		return new ExtractOptions(executor, this.replaceExisting, this.preserveTimes);
+	}
+	
+	public ExtractOptions withReplaceExisting(boolean replaceExisting) {
+		return new ExtractOptions(this.executor, replaceExisting, this.preserveTimes);
+	}
+	
+	public ExtractOptions withPreserveTimes(boolean preserveTimes) {
+		return new ExtractOptions(this.executor, this.replaceExisting, preserveTimes);
+	}
+}
@@ -0,0 +1,171 @@
+package net.devtech.betterzipfs.impl;
+
+import java.io.BufferedOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.FileSystem;
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * ZipFileSystem#sync copies every entry into a new file, so adding one entry to a large archive rewrites all of it. This instead appends the
+ * changed entries after the zip's END record, followed by a new central directory and END record, so syncing costs as much as what changed.
+ * Nothing that's already in the file is overwritten, so until the new END record is written the old one still describes the archive, and if
+ * the sync fails the file is truncated back to it.
+ * <p>
+ * The contents of replaced and deleted entries and the old central directories are left in the file. Readers that go through the central
+ * directory don't see them, but ones that read the local headers in order, like ZipInputStream, stop at the first old central directory.
+ * Once more than half the file is left over, closing the file system lets zipfs rewrite it instead. A new or changed manifest has to be
+ * the first entry for JarInputStream, so it's always synced by rewriting the file as well.
+ */
+class IncrementalSync {
+	private static final String MANIFEST = "/META-INF/MANIFEST.MF";
+	/**
+	 * entries that have already been appended to the zip file by an earlier sync
+	 */
+	private Set<Object> appended = Collections.newSetFromMap(new IdentityHashMap<>());
+	
+	/**
+	 * @param closing whether the file system is being closed, and can be compacted by rewriting it if enough of it is left over
+	 * @return false if the zip should be synced by rewriting it (it doesn't exist yet, has data prepended to it, has a new manifest or is due
+	 * to be compacted), and nothing was written
+	 */
+	boolean sync(FileSystem zipfs, boolean closing) throws IOException {
+		Path file = ZipFSReflect.ZipFS.getZipFile(zipfs);
+		if(!ZipFSReflect.Records.isSupported() || file.getFileSystem() != FileSystems.getDefault()) {
+			return false;
+		}
+		
+		ZipFSReflect.ZipFS.beginWrite(zipfs);
+		try {
+			byte[] cen = ZipFSReflect.Records.getCEN(zipfs);
+			if(cen == null || ZipFSReflect.ZipFS.getLocPos(zipfs) != 0 || !Files.exists(file)) {
+				return false;
+			}
+			boolean hasUpdate = ZipFSReflect.ZipFS.getHasUpdate(zipfs);
+			if(!hasUpdate && !closing) {
+				return true;
+			}
+			
+			List<Object> records = new ArrayList<>(); // entries, or the position of an unchanged record in cen
+			List<BasicFileAttributes> pending = new ArrayList<>();
+			long live = RawZipFile.ENDHDR; // roughly how much of the file the current entries and their central directory take up
+			for(Object inode : ZipFSReflect.ZipFS.getInodes(zipfs).values()) {
+				if(inode instanceof BasicFileAttributes entry) {
+					byte[] name = ZipFSReflect.IndexNode.getName(entry);
+					if(!this.appended.contains(entry)) {
+						if(isManifest(name)) {
+							return false;
+						}
+						pending.add(entry);
+					}
+					records.add(entry);
+					live += RawZipFile.LOCHDR + ZipFSReflect.Records.CENHDR + 2L * name.length + ZipFSReflect.Entry.getCSize(entry);
+				} else {
+					int pos = ZipFSReflect.IndexNode.getPos(inode);
+					byte[] name = ZipFSReflect.IndexNode.getName(inode);
+					if(pos != -1 && !(name.length == 1 && name[0] == '/')) { // pseudo directories and the root aren't in the zip
+						records.add(pos);
+						live += RawZipFile.LOCHDR + name.length + RawZipFile.record(cen, pos, 0).csize() + ZipFSReflect.Records.getCENLength(cen, pos);
+					}
+				}
+			}
+			if(closing && Files.size(file) - live > live) { // mostly replaced entries and old central directories, so it's rewritten
+				ZipFSReflect.ZipFS.hasUpdate(zipfs); // zipfs only rewrites the file on close if something changed
+				return false;
+			}
+			if(!hasUpdate) {
+				return true;
+			}
+			
+			long[] locoffs = new long[pending.size()];
+			List<Path> files = new ArrayList<>();
+			for(int i = 0; i < locoffs.length; i++) {
+				locoffs[i] = ZipFSReflect.Entry.getLocOff(pending.get(i));
+				Path contents = ZipFSReflect.Entry.getFile(pending.get(i));
+				if(contents != null) {
+					files.add(contents);
+				}
+			}
+			long written;
+			try(FileChannel channel = FileChannel.open(file, StandardOpenOption.WRITE)) {
+				long start = channel.size();
+				written = start;
+				try {
+					OutputStream os = new BufferedOutputStream(Channels.newOutputStream(channel.position(start)), 65536);
+					byte[] buf = null;
+					for(BasicFileAttributes entry : pending) {
+						int type = ZipFSReflect.Entry.getType(entry);
+						if(type == ZipFSReflect.Entry.TYPE_COPY || type == ZipFSReflect.Entry.TYPE_CEN) { // contents are already in the zip file
+							if(buf == null) {
+								buf = new byte[8192];
+							}
+							written += ZipFSReflect.Records.copyLOCEntry(zipfs, entry, os, written, buf);
+						} else {
+							ZipFSReflect.Entry.setLocOff(entry, written);
+							written += ZipFSReflect.Records.writeLOC(entry, os);
+							written += ZipFSReflect.Records.writeEntry(zipfs, entry, os);
+						}
+					}
+					
+					long cenoff = written;
+					for(Object record : records) {
+						if(record instanceof Integer pos) {
+							int len = ZipFSReflect.Records.getCENLength(cen, pos);
+							os.write(cen, pos, len);
+							written += len;
+						} else {
+							written += ZipFSReflect.Records.writeCEN((BasicFileAttributes) record, os);
+						}
+					}
+					ZipFSReflect.Records.writeEND(zipfs, os, written, cenoff, written - cenoff, records.size());
+					os.flush();
+					channel.force(false);
+				} catch(IOException | RuntimeException e) {
+					// the old END record is still at the end of what was there before
+					for(int i = 0; i < locoffs.length; i++) {
+						ZipFSReflect.Entry.setLocOff(pending.get(i), locoffs[i]);
+					}
+					channel.truncate(start);
+					throw e;
+				}
+			}
+			
+			// the appended entries are now read out of the zip file like any other copied entry
+			for(BasicFileAttributes entry : pending) {
+				ZipFSReflect.Entry.setType(entry, ZipFSReflect.Entry.TYPE_COPY);
+				ZipFSReflect.Entry.setBytes(entry, null);
+				ZipFSReflect.Entry.setFile(entry, null);
+			}
+			Set<Object> current = Collections.newSetFromMap(new IdentityHashMap<>());
+			for(Object record : records) {
+				if(!(record instanceof Integer)) {
+					current.add(record);
+				}
+			}
+			this.appended = current;
+			for(Path contents : files) { // zipfs only deletes the temporary files of new entries it writes itself
+				Files.deleteIfExists(contents);
+			}
+			ZipFSReflect.ZipFS.clearUpdate(zipfs);
+			return true;
+		} finally {
+			ZipFSReflect.ZipFS.endWrite(zipfs);
+		}
+	}
+	
+	private static boolean isManifest(byte[] name) {
+		return name.length == MANIFEST.length() && new String(name, StandardCharsets.UTF_8).equalsIgnoreCase(MANIFEST);
+	}
+}
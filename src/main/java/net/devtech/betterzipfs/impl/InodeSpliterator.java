@@ -0,0 +1,77 @@
+package net.devtech.betterzipfs.impl;
+
+import java.nio.file.FileSystem;
+import java.util.Spliterator;
+import java.util.function.Consumer;
+import java.util.function.Function;
+
+/**
+ * A spliterator over a snapshot of a zip file system's current index nodes, unlike the one of the inode map, this splits evenly down to single
+ * elements, and only converts the nodes it's asked for.
+ */
+public final class InodeSpliterator<T> implements Spliterator<T> {
+	private final Object[] inodes;
+	private final Function<Object, T> mapper;
+	private int index;
+	private final int end;
+	
+	InodeSpliterator(Object[] inodes, int index, int end, Function<Object, T> mapper) {
+		this.inodes = inodes;
+		this.index = index;
+		this.end = end;
+		this.mapper = mapper;
+	}
+	
+	/**
+	 * @param mapper converts an index node into an element of the stream
+	 */
+	public static <T> InodeSpliterator<T> of(FileSystem zipfs, Function<Object, T> mapper) {
+		Object[] inodes;
+		ZipFSReflect.ZipFS.beginRead(zipfs);
+		try {
+			inodes = ZipFSReflect.ZipFS.getInodes(zipfs).values().toArray(); // update replaces the value, the key stays the node it replaced
+		} finally {
+			ZipFSReflect.ZipFS.endRead(zipfs);
+		}
+		return new InodeSpliterator<>(inodes, 0, inodes.length, mapper);
+	}
+	
+	@Override
+	public boolean tryAdvance(Consumer<? super T> action) {
+		if(this.index < this.end) {
+			action.accept(this.mapper.apply(this.inodes[this.index++]));
+			return true;
+		}
+		return false;
+	}
+	
+	@Override
+	public void forEachRemaining(Consumer<? super T> action) {
+		Object[] inodes = this.inodes;
+		Function<Object, T> mapper = this.mapper;
+		for(int i = this.index, end = this.end; i < end; i++) {
+			action.accept(mapper.apply(inodes[i]));
+		}
+		this.index = this.end;
+	}
+	
+	@Override
+	public Spliterator<T> trySplit() {
+		int start = this.index, mid = (start + this.end) >>> 1;
+		if(mid <= start) {
+			return null;
+		}
+		this.index = mid;
+		return new InodeSpliterator<>(this.inodes, start, mid, this.mapper);
+	}
+	
+	@Override
+	public long estimateSize() {
+		return this.end - this.index;
+	}
+	
+	@Override
+	public int characteristics() {
+		return SIZED | SUBSIZED | NONNULL | IMMUTABLE;
+	}
+}
@@ -0,0 +1,55 @@
+package net.devtech.betterzipfs.impl;
+
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Counts durations in power of two nanosecond buckets, bucket {@code i} holds durations in [2^(i-1), 2^i) ns.
+ */
+public final class LatencyHistogram {
+	private final LongAdder[] buckets = new LongAdder[64];
+	private final LongAdder totalNanos = new LongAdder();
+	private final LongAccumulator maxNanos = new LongAccumulator(Math::max, 0);
+	
+	public LatencyHistogram() {
+		for(int i = 0; i < this.buckets.length; i++) {
+			this.buckets[i] = new LongAdder();
+		}
+	}
+	
+	public record Snapshot(long count, long totalNanos, long maxNanos, long[] buckets) {
+		public double meanNanos() {
+			return this.count == 0 ? 0 : (double) this.totalNanos / this.count;
+		}
+		
+		/**
+		 * @return an upper bound of the given percentile (0-1) of durations, accurate to a power of two
+		 */
+		public long percentileNanos(double percentile) {
+			long target = (long) Math.ceil(this.count * percentile), seen = 0;
+			for(int i = 0; i < this.buckets.length; i++) {
+				seen += this.buckets[i];
+				if(seen >= target && seen > 0) {
+					return Math.min(i == 63 ? Long.MAX_VALUE : 1L << i, this.maxNanos);
+				}
+			}
+			return 0;
+		}
+	}
+	
+	public void record(long nanos) {
+		nanos = Math.max(0, nanos);
+		this.buckets[64 - Long.numberOfLeadingZeros(nanos)].increment();
+		this.totalNanos.add(nanos);
+		this.maxNanos.accumulate(nanos);
+	}
+	
+	public Snapshot snapshot() {
+		long[] buckets = new long[this.buckets.length];
+		long count = 0;
+		for(int i = 0; i < buckets.length; i++) {
+			count += buckets[i] = this.buckets[i].sum();
+		}
+		return new Snapshot(count, this.totalNanos.sum(), this.maxNanos.get(), buckets);
+	}
+}
@@ -0,0 +1,76 @@
+package net.devtech.betterzipfs.impl;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.channels.SeekableByteChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.FileSystem;
+import java.nio.file.FileSystems;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.zip.ZipException;
+
+/**
+ * Stored (uncompressed) entries are in the zip file byte for byte, so they can be read straight out of a memory mapping of the zip file
+ * instead of being copied onto the heap.
+ */
+class MappedEntries {
+	/**
+	 * windows can't replace a file while it's mapped, which sync needs to do
+	 */
+	static final boolean SUPPORTED = File.separatorChar == '/';
+	static final int LOCHDR = 30, LOCSIG = 0x04034b50;
+	
+	/**
+	 * @return a read only channel over a mapping of the entry's data, or null if the entry is compressed, modified or otherwise can't be mapped
+	 */
+	static SeekableByteChannel map(FileSystem zipfs, byte[] name) throws IOException {
+		Path file = ZipFSReflect.ZipFS.getZipFile(zipfs);
+		if(!SUPPORTED || file.getFileSystem() != FileSystems.getDefault()) {
+			return null;
+		}
+		
+		long pos, size;
+		ZipFSReflect.ZipFS.beginRead(zipfs);
+		try {
+			BasicFileAttributes entry = ZipFSReflect.ZipFS.getEntry(zipfs, name);
+			if(entry == null || entry.isDirectory() || ZipFSReflect.Entry.getType(entry) != ZipFSReflect.Entry.TYPE_CEN
+			   || ZipFSReflect.Entry.getCompressionMethod(entry) != ZipFSReflect.Entry.METHOD_STORED) {
+				return null;
+			}
+			pos = ZipFSReflect.ZipFS.getLocPos(zipfs) + ZipFSReflect.Entry.getLocOff(entry);
+			size = ZipFSReflect.Entry.getSize(entry);
+		} finally {
+			ZipFSReflect.ZipFS.endRead(zipfs);
+		}
+		
+		if(size == 0) {
+			return new SeekableByteChannelCopy(ByteBuffer.allocate(0));
+		}
+		
+		// the mapping stays valid after the channel is closed
+		try(FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+			ByteBuffer header = ByteBuffer.allocate(LOCHDR).order(ByteOrder.LITTLE_ENDIAN);
+			while(header.hasRemaining()) {
+				if(channel.read(header, pos + header.position()) == -1) {
+					throw new ZipException("invalid loc " + pos + " for entry " + new String(name, StandardCharsets.UTF_8));
+				}
+			}
+			if(header.getInt(0) != LOCSIG) {
+				throw new ZipException("invalid loc " + pos + " for entry " + new String(name, StandardCharsets.UTF_8));
+			}
+			long data = pos + LOCHDR + Short.toUnsignedInt(header.getShort(26)) + Short.toUnsignedInt(header.getShort(28));
+			// a single mapping can't be larger than 2GB
+			ByteBuffer[] segments = new ByteBuffer[(int) ((size + SeekableByteChannelCopy.SEGMENT_SIZE - 1) >>> SeekableByteChannelCopy.SEGMENT_SHIFT)];
+			for(int i = 0; i < segments.length; i++) {
+				long offset = (long) i << SeekableByteChannelCopy.SEGMENT_SHIFT;
+				segments[i] = channel.map(FileChannel.MapMode.READ_ONLY, data + offset, Math.min(SeekableByteChannelCopy.SEGMENT_SIZE, size - offset));
+			}
+			return new SeekableByteChannelCopy(segments);
+		}
+	}
+}
@@ -0,0 +1,28 @@
+package net.devtech.betterzipfs.impl;
+
+import java.util.concurrent.Executor;
+import java.util.concurrent.ForkJoinPool;
+
+/**
+ * How {@link ZipPacker} packs a directory.
+ *
+ * @param executor where files are read and compressed
+ * @param compressionPolicy chooses how each file is compressed, it's given the file's path relative to the directory being packed
+ * @param lastModifiedTime the modification time of every entry in milliseconds since the epoch, for reproducible zips, or -1 to use the times
+ * 		of the files
+ */
+public record PackOptions(Executor executor, CompressionPolicy compressionPolicy, long lastModifiedTime) {
+	public static final PackOptions DEFAULT = new PackOptions(ForkJoinPool.commonPool(), CompressionPolicy.level(CompressionPolicy.DEFAULT), -1);
+	
+	public PackOptions withExecutor(Executor executor) {
+		return new PackOptions(executor, this.compressionPolicy, this.lastModifiedTime);
+	}
+	
+	public PackOptions withCompressionPolicy(CompressionPolicy compressionPolicy) {
+		return new PackOptions(this.executor, compressionPolicy, this.lastModifiedTime);
+	}
+	
+	public PackOptions withLastModifiedTime(long lastModifiedTime) {
+		return new PackOptions(this.executor, this.compressionPolicy, lastModifiedTime);
+	}
+}
@@ -0,0 +1,143 @@
+package net.devtech.betterzipfs.impl;
+
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.stream.Stream;
+
+/**
+ * Open addressing table of {@link ZipPath}s keyed by their resolved path, lookups compare the byte[] names and hashes cached on the paths
+ * themselves so they don't allocate. Reads are lock free, writes are synchronized.
+ */
+public final class PathTable implements Iterable<ZipPath> {
+	private static final VarHandle SLOTS = MethodHandles.arrayElementVarHandle(ZipPath[].class);
+	private static final ZipPath TOMBSTONE = new ZipPath(null, null);
+	private static final int INITIAL_CAPACITY = 64;
+	
+	private volatile ZipPath[] table = new ZipPath[INITIAL_CAPACITY];
+	private int size, tombstones;
+	
+	static int hash(byte[] path) {
+		int hash = Arrays.hashCode(path);
+		return hash ^ (hash >>> 16);
+	}
+	
+	/**
+	 * @return the path already in the table with the same resolved path as {@code path}, or {@code path} if it was added
+	 */
+	public ZipPath putIfAbsent(ZipPath path) {
+		byte[] name = path.resolvedPath();
+		int hash = path.resolvedHash();
+		ZipPath found = find(this.table, name, hash);
+		if(found != null) {
+			return found;
+		}
+		
+		synchronized(this) {
+			ZipPath[] table = this.table;
+			int mask = table.length - 1, insert = -1;
+			for(int i = hash & mask; ; i = (i + 1) & mask) {
+				ZipPath slot = table[i];
+				if(slot == null) {
+					if(insert == -1) {
+						insert = i;
+					}
+					break;
+				} else if(slot == TOMBSTONE) {
+					if(insert == -1) {
+						insert = i;
+					}
+				} else if(matches(slot, name, hash)) {
+					return slot;
+				}
+			}
+			
+			if(table[insert] == TOMBSTONE) {
+				this.tombstones--;
+			}
+			SLOTS.setRelease(table, insert, path);
+			if(++this.size + this.tombstones > (table.length >> 1) + (table.length >> 2)) {
+				this.resize();
+			}
+			return path;
+		}
+	}
+	
+	public ZipPath get(ZipPath path) {
+		return find(this.table, path.resolvedPath(), path.resolvedHash());
+	}
+	
+	public synchronized ZipPath remove(ZipPath path) {
+		byte[] name = path.resolvedPath();
+		int hash = path.resolvedHash();
+		ZipPath[] table = this.table;
+		int mask = table.length - 1;
+		for(int i = hash & mask; ; i = (i + 1) & mask) {
+			ZipPath slot = table[i];
+			if(slot == null) {
+				return null;
+			} else if(slot != TOMBSTONE && matches(slot, name, hash)) {
+				SLOTS.setRelease(table, i, TOMBSTONE);
+				this.size--;
+				this.tombstones++;
+				return slot;
+			}
+		}
+	}
+	
+	public synchronized int size() {
+		return this.size;
+	}
+	
+	/**
+	 * @return a weakly consistent stream of the paths in the table
+	 */
+	public Stream<ZipPath> stream() {
+		return Arrays.stream(this.table).filter(PathTable::isPresent);
+	}
+	
+	@Override
+	public Iterator<ZipPath> iterator() {
+		return this.stream().iterator();
+	}
+	
+	private static ZipPath find(ZipPath[] table, byte[] name, int hash) {
+		int mask = table.length - 1;
+		for(int i = hash & mask; ; i = (i + 1) & mask) {
+			ZipPath slot = (ZipPath) SLOTS.getAcquire(table, i);
+			if(slot == null) {
+				return null;
+			} else if(slot != TOMBSTONE && matches(slot, name, hash)) {
+				return slot;
+			}
+		}
+	}
+	
+	private static boolean matches(ZipPath path, byte[] name, int hash) {
+		return path.resolvedHash() == hash && Arrays.equals(path.resolvedPath(), name);
+	}
+	
+	private static boolean isPresent(ZipPath path) {
+		return path != null && path != TOMBSTONE;
+	}
+	
+	private void resize() {
+		ZipPath[] old = this.table;
+		// only grow if the table is actually full, otherwise just clear out the tombstones
+		int capacity = this.size > (old.length >> 1) ? old.length << 1 : old.length;
+		ZipPath[] table = new ZipPath[capacity];
+		int mask = capacity - 1;
+		for(ZipPath path : old) {
+			if(isPresent(path)) {
+				int i = path.resolvedHash() & mask;
+				while(table[i] != null) {
+					i = (i + 1) & mask;
+				}
+				table[i] = path;
+			}
+		}
+		this.tombstones = 0;
+		this.table = table;
+	}
+}
@@ -0,0 +1,300 @@
+package net.devtech.betterzipfs.impl;
+
+import static net.devtech.betterzipfs.impl.EntryMetadata.u16;
+import static net.devtech.betterzipfs.impl.EntryMetadata.u32;
+import static net.devtech.betterzipfs.impl.EntryMetadata.u64;
+
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.zip.DataFormatException;
+import java.util.zip.Inflater;
+import java.util.zip.ZipException;
+
+/**
+ * A zip file read straight from its central directory, without a file system. Entries are positions in {@link #cen}, and their contents
+ * can be read or copied raw with positional reads, so any number of threads can read different entries at once.
+ */
+class RawZipFile implements Closeable {
+	static final int LOCHDR = 30, ENDHDR = 22, ZIP64_ENDHDR = 56, ZIP64_LOCHDR = 20;
+	static final long LOCSIG = 0x04034b50L, CENSIG = 0x02014b50L, ENDSIG = 0x06054b50L, ZIP64_ENDSIG = 0x06064b50L, ZIP64_LOCSIG = 0x07064b50L;
+	static final ThreadLocal<Inflater> INFLATER = ThreadLocal.withInitial(() -> new Inflater(true));
+	
+	final Path file;
+	final FileChannel channel;
+	/**
+	 * the central directory, without the END record
+	 */
+	final byte[] cen;
+	final int total;
+	/**
+	 * the number of bytes prepended to the zip, which the offsets in the central directory don't account for
+	 */
+	final long locpos;
+	/**
+	 * the position of the END records, right after the central directory
+	 */
+	final long endpos;
+	
+	private RawZipFile(Path file, FileChannel channel, byte[] cen, int total, long locpos, long endpos) {
+		this.file = file;
+		this.channel = channel;
+		this.cen = cen;
+		this.total = total;
+		this.locpos = locpos;
+		this.endpos = endpos;
+	}
+	
+	static RawZipFile open(Path file) throws IOException {
+		FileChannel channel = FileChannel.open(file, StandardOpenOption.READ);
+		try {
+			long size = channel.size();
+			int len = (int) Math.min(size, ENDHDR + 0xFFFF);
+			byte[] tail = read(channel, size - len, len);
+			int end = len - ENDHDR;
+			while(end >= 0 && (u32(tail, end) != ENDSIG || end + ENDHDR + u16(tail, end + 20) > len)) {
+				end--;
+			}
+			if(end < 0) {
+				throw new ZipException("zip END header not found in " + file);
+			}
+			long endpos = size - len + end, cenpos = endpos;
+			long total = u16(tail, end + 10), cenlen = u32(tail, end + 12), cenoff = u32(tail, end + 16);
+			if((total == 0xFFFF || cenlen == EntryMetadata.ZIP64_MINVAL || cenoff == EntryMetadata.ZIP64_MINVAL) && endpos >= ZIP64_LOCHDR + ZIP64_ENDHDR) {
+				byte[] locator = read(channel, endpos - ZIP64_LOCHDR, ZIP64_LOCHDR);
+				if(u32(locator, 0) == ZIP64_LOCSIG) {
+					long end64pos = endpos - ZIP64_LOCHDR - ZIP64_ENDHDR; // the locator's offset doesn't account for prepended data
+					byte[] end64 = read(channel, end64pos, ZIP64_ENDHDR);
+					if(u32(end64, 0) != ZIP64_ENDSIG) {
+						end64pos = u64(locator, 8);
+						end64 = read(channel, end64pos, ZIP64_ENDHDR);
+						if(u32(end64, 0) != ZIP64_ENDSIG) {
+							throw new ZipException("invalid zip64 END header in " + file);
+						}
+					}
+					total = u64(end64, 32);
+					cenlen = u64(end64, 40);
+					cenoff = u64(end64, 48);
+					cenpos = end64pos;
+				}
+			}
+			if(cenlen > Integer.MAX_VALUE - 8 || total > Integer.MAX_VALUE || cenpos < cenlen) {
+				throw new ZipException("invalid central directory in " + file);
+			}
+			long cenend = cenpos;
+			cenpos -= cenlen;
+			byte[] cen = read(channel, cenpos, (int) cenlen);
+			return new RawZipFile(file, channel, cen, (int) total, cenpos - cenoff, cenend);
+		} catch(IOException | RuntimeException e) {
+			channel.close();
+			throw e;
+		}
+	}
+	
+	/**
+	 * @return the position of the first entry in {@link #cen}, or -1 if there are none
+	 */
+	int first() {
+		return this.check(0);
+	}
+	
+	/**
+	 * @return the position of the entry after the one at {@code pos}, or -1 if it was the last one
+	 */
+	int next(int pos) {
+		return this.check(pos + ZipFSReflect.Records.getCENLength(this.cen, pos));
+	}
+	
+	private int check(int pos) {
+		if(pos + ZipFSReflect.Records.CENHDR > this.cen.length) {
+			return -1;
+		}
+		if(u32(this.cen, pos) != CENSIG) {
+			throw new IllegalStateException("invalid central directory header at " + pos + " in " + this.file);
+		}
+		return pos;
+	}
+	
+	Record record(int pos) {
+		return record(this.cen, pos, this.locpos);
+	}
+	
+	/**
+	 * @param locpos the number of bytes prepended to the zip
+	 */
+	static Record record(byte[] cen, int pos, long locpos) {
+		int nlen = u16(cen, pos + 28), elen = u16(cen, pos + 30), clen = u16(cen, pos + 32);
+		long csize = u32(cen, pos + 20), size = u32(cen, pos + 24), locoff = u32(cen, pos + 42);
+		int name = pos + ZipFSReflect.Records.CENHDR, off = name + nlen, end = off + elen;
+		ByteArrayOutputStream extra = new ByteArrayOutputStream(elen);
+		while(off + 4 <= end) {
+			int tag = u16(cen, off), sz = u16(cen, off + 2), data = off + 4, next = data + sz;
+			if(next > end) {
+				break;
+			}
+			if(tag == EntryMetadata.EXTID_ZIP64) { // the writer adds its own if it's still needed
+				if(size == EntryMetadata.ZIP64_MINVAL && data + 8 <= next) {
+					size = u64(cen, data);
+					data += 8;
+				}
+				if(csize == EntryMetadata.ZIP64_MINVAL && data + 8 <= next) {
+					csize = u64(cen, data);
+					data += 8;
+				}
+				if(locoff == EntryMetadata.ZIP64_MINVAL && data + 8 <= next) {
+					locoff = u64(cen, data);
+				}
+			} else {
+				extra.write(cen, off, 4 + sz);
+			}
+			off = next;
+		}
+		return new Record(Arrays.copyOfRange(cen, name, name + nlen),
+				u16(cen, pos + 4),
+				u16(cen, pos + 8),
+				u16(cen, pos + 10),
+				u32(cen, pos + 12),
+				u32(cen, pos + 16),
+				csize,
+				size,
+				locoff + locpos,
+				u16(cen, pos + 36),
+				u32(cen, pos + 38),
+				extra.toByteArray(),
+				Arrays.copyOfRange(cen, end, end + clen));
+	}
+	
+	/**
+	 * @return the position of the entry's compressed contents in the file
+	 */
+	long dataOffset(Record record) throws IOException {
+		byte[] loc = read(this.channel, record.locoff(), LOCHDR);
+		if(u32(loc, 0) != LOCSIG) {
+			throw new ZipException("invalid local header for " + record.nameString() + " in " + this.file);
+		}
+		return record.locoff() + LOCHDR + u16(loc, 26) + u16(loc, 28);
+	}
+	
+	/**
+	 * @return the compressed contents of the entry
+	 */
+	byte[] readRaw(Record record) throws IOException {
+		if(record.csize() > Integer.MAX_VALUE - 8) {
+			throw new ZipException(record.nameString() + " is too large to read into memory");
+		}
+		return read(this.channel, this.dataOffset(record), (int) record.csize());
+	}
+	
+	/**
+	 * @return the uncompressed contents of the entry
+	 */
+	byte[] read(Record record) throws IOException {
+		if(record.size() > Integer.MAX_VALUE - 8) {
+			throw new ZipException(record.nameString() + " is too large to read into memory");
+		}
+		byte[] compressed = this.readRaw(record);
+		return inflate(record, compressed, 0, compressed.length);
+	}
+	
+	static byte[] inflate(Record record, byte[] compressed, int off, int len) throws ZipException {
+		if(record.method() == ZipFSReflect.Entry.METHOD_STORED) {
+			return off == 0 && len == compressed.length ? compressed : Arrays.copyOfRange(compressed, off, off + len);
+		} else if(record.method() != ZipFSReflect.Entry.METHOD_DEFLATED) {
+			throw new ZipException("unsupported compression method " + record.method() + " for " + record.nameString());
+		}
+		Inflater inflater = INFLATER.get();
+		try {
+			byte[] data = new byte[(int) record.size()];
+			inflater.setInput(compressed, off, len);
+			int read = 0;
+			while(read < data.length && !inflater.finished()) {
+				int inflated = inflater.inflate(data, read, data.length - read);
+				if(inflated == 0 && (inflater.needsInput() || inflater.needsDictionary())) {
+					break;
+				}
+				read += inflated;
+			}
+			if(read != data.length) {
+				throw new ZipException("invalid compressed contents for " + record.nameString());
+			}
+			return data;
+		} catch(DataFormatException e) {
+			throw new ZipException(e.getMessage());
+		} finally {
+			inflater.reset();
+		}
+	}
+	
+	/**
+	 * a central directory record
+	 *
+	 * @param time in ms-dos format
+	 * @param locoff the position of the local header in the file
+	 * @param extra the extra fields, without the zip64 one
+	 */
+	record Record(byte[] name,
+	              int versionMadeBy,
+	              int flag,
+	              int method,
+	              long time,
+	              long crc,
+	              long csize,
+	              long size,
+	              long locoff,
+	              int iattr,
+	              long eattr,
+	              byte[] extra,
+	              byte[] comment) {
+		static final byte[] EMPTY = {};
+		
+		/**
+		 * a record for a new entry
+		 */
+		static Record of(byte[] name, int method, long time, long crc, long csize, long size) {
+			return new Record(name, 20, 1 << 11, method, time, crc, csize, size, 0, 0, 0, EMPTY, EMPTY);
+		}
+		
+		/**
+		 * @return this record with different contents
+		 */
+		Record withContents(int method, long crc, long csize, long size) {
+			return new Record(this.name, this.versionMadeBy, this.flag, method, this.time, crc, csize, size, this.locoff, this.iattr, this.eattr,
+					this.extra, this.comment);
+		}
+		
+		String nameString() {
+			return new String(this.name, StandardCharsets.UTF_8);
+		}
+		
+		boolean isDirectory() {
+			return this.name.length > 0 && this.name[this.name.length - 1] == '/';
+		}
+	}
+	
+	static byte[] read(FileChannel channel, long pos, int len) throws IOException {
+		byte[] bytes = new byte[len];
+		read(channel, pos, bytes, len);
+		return bytes;
+	}
+	
+	static void read(FileChannel channel, long pos, byte[] bytes, int len) throws IOException {
+		ByteBuffer buffer = ByteBuffer.wrap(bytes, 0, len);
+		while(buffer.hasRemaining()) {
+			if(channel.read(buffer, pos + buffer.position()) < 0) {
+				throw new EOFException();
+			}
+		}
+	}
+	
+	@Override
+	public void close() throws IOException {
+		this.channel.close();
+	}
+}
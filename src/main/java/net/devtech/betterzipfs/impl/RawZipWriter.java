@@ -0,0 +1,340 @@
+package net.devtech.betterzipfs.impl;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+
+/**
+ * Writes a zip file from start to end, each entry's local header and contents are written as soon as they're given, and only the central
+ * directory is kept in memory until the zip is closed.
+ */
+class RawZipWriter implements Closeable {
+	private final FileChannel channel;
+	private final OutputStream out;
+	private final ByteArrayOutputStream cen = new ByteArrayOutputStream();
+	private final byte[] buffer = new byte[8192];
+	/**
+	 * the number of each entry's central directory record by name, and the records that were replaced or removed since, null unless
+	 * entries can be replaced
+	 */
+	private final Map<ByteArrayWrapper, Integer> names;
+	private final BitSet removed;
+	/**
+	 * where each central directory record starts in {@link #cen}
+	 */
+	private int[] offsets;
+	private long written;
+	private long total;
+	
+	/**
+	 * @param channel an empty channel opened for writing, closed along with the writer
+	 */
+	RawZipWriter(FileChannel channel) {
+		this(channel, false);
+	}
+	
+	/**
+	 * @param replaceable whether entries can be written more than once or removed, only the last one written under a name is listed in the
+	 * central directory, the contents of the others stay in the file
+	 */
+	RawZipWriter(FileChannel channel, boolean replaceable) {
+		this.channel = channel;
+		this.out = new BufferedOutputStream(Channels.newOutputStream(channel), 65536);
+		this.names = replaceable ? new HashMap<>() : null;
+		this.removed = replaceable ? new BitSet() : null;
+		this.offsets = replaceable ? new int[16] : null;
+	}
+	
+	/**
+	 * leaves the entry out of the central directory, only for writers whose entries are replaceable
+	 *
+	 * @param name the name of the entry, without a leading '/'
+	 */
+	void remove(byte[] name) {
+		Integer previous = this.names.remove(new ByteArrayWrapper(name));
+		if(previous != null) {
+			this.removed.set(previous);
+		}
+	}
+	
+	/**
+	 * copies the compressed contents of an entry straight from the file it's in
+	 */
+	void copy(RawZipFile src, RawZipFile.Record record) throws IOException {
+		long pos = src.dataOffset(record), remaining = record.csize();
+		long locoff = this.writeLOC(record);
+		if(remaining <= this.buffer.length) { // not worth flushing the buffer for
+			ByteBuffer buffer = ByteBuffer.wrap(this.buffer, 0, (int) remaining);
+			while(buffer.hasRemaining()) {
+				if(src.channel.read(buffer, pos + buffer.position()) < 0) {
+					throw new IOException("unexpected end of " + src.file + " while copying " + record.nameString());
+				}
+			}
+			this.out.write(this.buffer, 0, (int) remaining);
+			remaining = 0;
+		} else {
+			this.out.flush();
+		}
+		while(remaining > 0) {
+			long transferred = src.channel.transferTo(pos, remaining, this.channel);
+			if(transferred <= 0) {
+				throw new IOException("unexpected end of " + src.file + " while copying " + record.nameString());
+			}
+			pos += transferred;
+			remaining -= transferred;
+		}
+		this.written += record.csize();
+		this.writeCEN(record, locoff);
+	}
+	
+	/**
+	 * @param compressed the contents of the entry, compressed with the record's method
+	 */
+	void write(RawZipFile.Record record, byte[] compressed, int off, int len) throws IOException {
+		long locoff = this.writeLOC(record);
+		this.out.write(compressed, off, len);
+		this.written += len;
+		this.writeCEN(record, locoff);
+	}
+	
+	/**
+	 * compresses the contents of a file into an entry as they're read, for entries too large to hold in memory. The local header is written
+	 * with zip64 sizes and filled in once the crc and sizes are known, and the entry is written again stored if deflating it didn't make it
+	 * smaller.
+	 *
+	 * @param record the entry, its method, crc and sizes are ignored
+	 * @param level the deflate level, or {@link CompressionPolicy#STORED}
+	 */
+	void deflate(RawZipFile.Record record, FileChannel src, int level) throws IOException {
+		long locoff = this.writeLOC(record.withContents(ZipFSReflect.Entry.METHOD_DEFLATED, 0, EntryMetadata.ZIP64_MINVAL, EntryMetadata.ZIP64_MINVAL));
+		long start = this.written;
+		int method = ZipFSReflect.Entry.METHOD_STORED;
+		RawZipFile.Record contents = null;
+		if(level != CompressionPolicy.STORED) {
+			Deflater deflater = new Deflater(level, true);
+			try {
+				contents = this.transfer(record, src, deflater);
+			} finally {
+				deflater.end();
+			}
+			if(contents.csize() < contents.size()) {
+				method = ZipFSReflect.Entry.METHOD_DEFLATED;
+			} else {
+				this.out.flush();
+				this.channel.truncate(start);
+				this.written = start;
+			}
+		}
+		if(method == ZipFSReflect.Entry.METHOD_STORED) {
+			contents = this.transfer(record, src, null);
+		}
+		
+		this.out.flush();
+		ByteBuffer header = ByteBuffer.allocate(4).order(ByteOrder.LITTLE_ENDIAN);
+		this.channel.write(header.putShort(0, (short) method).limit(2), locoff + 8);
+		this.channel.write(header.clear().putInt(0, (int) contents.crc()), locoff + 14);
+		ByteBuffer sizes = ByteBuffer.allocate(16).order(ByteOrder.LITTLE_ENDIAN).putLong(0, contents.size()).putLong(8, contents.csize());
+		this.channel.write(sizes, locoff + RawZipFile.LOCHDR + record.name().length + 4); // the zip64 extra field
+		this.writeCEN(contents, locoff);
+	}
+	
+	/**
+	 * writes the contents of a file, deflated if a deflater is given
+	 *
+	 * @return the record with the crc and sizes of what was written
+	 */
+	private RawZipFile.Record transfer(RawZipFile.Record record, FileChannel src, Deflater deflater) throws IOException {
+		byte[] buffer = new byte[65536], output = deflater == null ? null : new byte[65536];
+		CRC32 crc = new CRC32();
+		long size = 0, csize = 0;
+		while(true) {
+			int read = src.read(ByteBuffer.wrap(buffer), size);
+			if(read < 0) {
+				break;
+			}
+			crc.update(buffer, 0, read);
+			size += read;
+			if(deflater == null) {
+				this.out.write(buffer, 0, read);
+				csize += read;
+			} else {
+				deflater.setInput(buffer, 0, read);
+				while(!deflater.needsInput()) {
+					int len = deflater.deflate(output);
+					this.out.write(output, 0, len);
+					csize += len;
+				}
+			}
+		}
+		if(deflater != null) {
+			deflater.finish();
+			while(!deflater.finished()) {
+				int len = deflater.deflate(output);
+				this.out.write(output, 0, len);
+				csize += len;
+			}
+		}
+		this.written += csize;
+		return record.withContents(deflater == null ? ZipFSReflect.Entry.METHOD_STORED : ZipFSReflect.Entry.METHOD_DEFLATED, crc.getValue(), csize, size);
+	}
+	
+	/**
+	 * @return the position of the local header
+	 */
+	private long writeLOC(RawZipFile.Record record) throws IOException {
+		OutputStream out = this.out;
+		long locoff = this.written;
+		boolean zip64 = record.size() >= EntryMetadata.ZIP64_MINVAL || record.csize() >= EntryMetadata.ZIP64_MINVAL;
+		u32(out, RawZipFile.LOCSIG);
+		u16(out, versionNeeded(record, zip64));
+		u16(out, record.flag() & ~ZipFSReflect.Entry.FLAG_DATADESCR); // the sizes are known up front
+		u16(out, record.method());
+		u32(out, record.time());
+		u32(out, record.crc());
+		u32(out, zip64 ? EntryMetadata.ZIP64_MINVAL : record.csize());
+		u32(out, zip64 ? EntryMetadata.ZIP64_MINVAL : record.size());
+		u16(out, record.name().length);
+		u16(out, record.extra().length + (zip64 ? 20 : 0));
+		out.write(record.name());
+		if(zip64) {
+			u16(out, EntryMetadata.EXTID_ZIP64);
+			u16(out, 16);
+			u64(out, record.size());
+			u64(out, record.csize());
+		}
+		out.write(record.extra());
+		this.written += RawZipFile.LOCHDR + record.name().length + record.extra().length + (zip64 ? 20 : 0);
+		return locoff;
+	}
+	
+	private void writeCEN(RawZipFile.Record record, long locoff) throws IOException {
+		OutputStream out = this.cen;
+		if(this.names != null) {
+			int number = (int) this.total;
+			if(number == this.offsets.length) {
+				this.offsets = Arrays.copyOf(this.offsets, number * 2);
+			}
+			this.offsets[number] = this.cen.size();
+			Integer previous = this.names.put(new ByteArrayWrapper(record.name()), number);
+			if(previous != null) {
+				this.removed.set(previous);
+			}
+		}
+		boolean size64 = record.size() >= EntryMetadata.ZIP64_MINVAL, csize64 = record.csize() >= EntryMetadata.ZIP64_MINVAL;
+		boolean locoff64 = locoff >= EntryMetadata.ZIP64_MINVAL;
+		int zip64 = (size64 ? 8 : 0) + (csize64 ? 8 : 0) + (locoff64 ? 8 : 0);
+		u32(out, RawZipFile.CENSIG);
+		u16(out, record.versionMadeBy());
+		u16(out, versionNeeded(record, zip64 != 0));
+		u16(out, record.flag() & ~ZipFSReflect.Entry.FLAG_DATADESCR);
+		u16(out, record.method());
+		u32(out, record.time());
+		u32(out, record.crc());
+		u32(out, csize64 ? EntryMetadata.ZIP64_MINVAL : record.csize());
+		u32(out, size64 ? EntryMetadata.ZIP64_MINVAL : record.size());
+		u16(out, record.name().length);
+		u16(out, record.extra().length + (zip64 == 0 ? 0 : 4 + zip64));
+		u16(out, record.comment().length);
+		u16(out, 0);
+		u16(out, record.iattr());
+		u32(out, record.eattr());
+		u32(out, locoff64 ? EntryMetadata.ZIP64_MINVAL : locoff);
+		out.write(record.name());
+		if(zip64 != 0) {
+			u16(out, EntryMetadata.EXTID_ZIP64);
+			u16(out, zip64);
+			if(size64) {
+				u64(out, record.size());
+			}
+			if(csize64) {
+				u64(out, record.csize());
+			}
+			if(locoff64) {
+				u64(out, locoff);
+			}
+		}
+		out.write(record.extra());
+		out.write(record.comment());
+		this.total++;
+	}
+	
+	private static int versionNeeded(RawZipFile.Record record, boolean zip64) {
+		return zip64 ? 45 : record.method() == ZipFSReflect.Entry.METHOD_DEFLATED ? 20 : 10;
+	}
+	
+	/**
+	 * writes the central directory and closes the file
+	 */
+	@Override
+	public void close() throws IOException {
+		try(this.channel) {
+			OutputStream out = this.out;
+			long cenoff = this.written, cenlen = this.cen.size(), total = this.total;
+			if(this.removed == null || this.removed.isEmpty()) {
+				this.cen.writeTo(out);
+			} else {
+				byte[] cen = this.cen.toByteArray();
+				cenlen = 0;
+				for(int i = this.removed.nextClearBit(0); i < this.total; i = this.removed.nextClearBit(i + 1)) {
+					int start = this.offsets[i], end = i + 1 < this.total ? this.offsets[i + 1] : cen.length;
+					out.write(cen, start, end - start);
+					cenlen += end - start;
+				}
+				total -= this.removed.cardinality();
+			}
+			if(total >= 0xFFFF || cenoff >= EntryMetadata.ZIP64_MINVAL || cenlen >= EntryMetadata.ZIP64_MINVAL) {
+				long end64pos = cenoff + cenlen;
+				u32(out, RawZipFile.ZIP64_ENDSIG);
+				u64(out, RawZipFile.ZIP64_ENDHDR - 12);
+				u16(out, 45);
+				u16(out, 45);
+				u32(out, 0);
+				u32(out, 0);
+				u64(out, total);
+				u64(out, total);
+				u64(out, cenlen);
+				u64(out, cenoff);
+				u32(out, RawZipFile.ZIP64_LOCSIG);
+				u32(out, 0);
+				u64(out, end64pos);
+				u32(out, 1);
+			}
+			u32(out, RawZipFile.ENDSIG);
+			u16(out, 0);
+			u16(out, 0);
+			u16(out, (int) Math.min(total, 0xFFFF));
+			u16(out, (int) Math.min(total, 0xFFFF));
+			u32(out, Math.min(cenlen, EntryMetadata.ZIP64_MINVAL));
+			u32(out, Math.min(cenoff, EntryMetadata.ZIP64_MINVAL));
+			u16(out, 0);
+			out.flush();
+		}
+	}
+	
+	static void u16(OutputStream out, int v) throws IOException {
+		out.write(v & 0xff);
+		out.write((v >>> 8) & 0xff);
+	}
+	
+	static void u32(OutputStream out, long v) throws IOException {
+		u16(out, (int) (v & 0xffff));
+		u16(out, (int) ((v >>> 16) & 0xffff));
+	}
+	
+	static void u64(OutputStream out, long v) throws IOException {
+		u32(out, v & 0xffffffffL);
+		u32(out, v >>> 32);
+	}
+}
@@ -1,38 +1,120 @@
 package net.devtech.betterzipfs.impl;
 
+import java.io.EOFException;
 import java.io.IOException;
 import java.io.UnsupportedEncodingException;
 import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
 import java.nio.channels.SeekableByteChannel;
 
+/**
+ * An immutable copy of a channel's contents, split into segments of at most {@link #SEGMENT_SIZE} bytes so entries larger than 2GB don't
+ * need one contiguous buffer.
+ */
 class SeekableByteChannelCopy implements SeekableByteChannel {
+	static final int SEGMENT_SHIFT = 30, SEGMENT_SIZE = 1 << SEGMENT_SHIFT;
+	
 	boolean isOpen = true;
-	public final ByteBuffer contents;
+	final ByteBuffer[] segments;
+	long position, size;
 	
 	public SeekableByteChannelCopy(ByteBuffer buffer) {
-		this.contents = buffer;
+		this(new ByteBuffer[] {buffer});
+	}
+	
+	/**
+	 * @param segments every segment except the last must be exactly {@link #SEGMENT_SIZE} bytes
+	 */
+	public SeekableByteChannelCopy(ByteBuffer[] segments) {
+		this.segments = segments;
+		long size = 0;
+		for(ByteBuffer segment : segments) {
+			size += segment.limit();
+		}
+		this.size = size;
+	}
+	
+	/**
+	 * the contents of the array without copying them, it mustn't be modified afterwards
+	 */
+	static SeekableByteChannelCopy wrap(byte[] array, int length) {
+		ByteBuffer[] segments = new ByteBuffer[Math.max(1, (length + SEGMENT_SIZE - 1) >>> SEGMENT_SHIFT)];
+		for(int i = 0; i < segments.length; i++) {
+			int start = i << SEGMENT_SHIFT;
+			segments[i] = ByteBuffer.wrap(array, start, Math.min(SEGMENT_SIZE, length - start)).slice();
+		}
+		return new SeekableByteChannelCopy(segments);
 	}
 	
 	public SeekableByteChannelCopy(SeekableByteChannel channel) throws IOException {
-		ByteBuffer contents = ByteBuffer.allocate(Math.toIntExact(channel.size()));
-		int position = Math.toIntExact(channel.position());
+		this(channel, false);
+	}
+	
+	public SeekableByteChannelCopy(SeekableByteChannel channel, boolean direct) throws IOException {
+		long size = channel.size();
+		ByteBuffer[] segments = new ByteBuffer[Math.max(1, (int) ((size + SEGMENT_SIZE - 1) >>> SEGMENT_SHIFT))];
+		long position = channel.position();
 		channel.position(0);
-		channel.read(contents);
-		contents.position(position);
-		this.contents = contents;
+		for(int i = 0; i < segments.length; i++) {
+			int length = (int) Math.min(SEGMENT_SIZE, size - ((long) i << SEGMENT_SHIFT));
+			ByteBuffer segment = direct ? ByteBuffer.allocateDirect(length) : ByteBuffer.allocate(length);
+			while(segment.hasRemaining()) {
+				if(channel.read(segment) == -1) {
+					throw new EOFException("channel ended before its size " + size);
+				}
+			}
+			segments[i] = segment.clear();
+		}
+		this.segments = segments;
+		this.size = size;
+		this.position = position;
+	}
+	
+	/**
+	 * whether the contents are a mapping of the zip file rather than a copy, see {@link MappedEntries}
+	 */
+	public boolean isMapped() {
+		return this.segments[0] instanceof MappedByteBuffer;
+	}
+	
+	/**
+	 * @return the array backing the contents if they're in exactly one heap buffer, which mustn't be modified, otherwise null
+	 */
+	byte[] array() {
+		ByteBuffer segment = this.segments[0];
+		if(this.segments.length == 1 && segment.hasArray() && segment.arrayOffset() == 0 && segment.array().length == this.size) {
+			return segment.array();
+		}
+		return null;
 	}
 	
 	@Override
 	public int read(ByteBuffer dst) throws IOException {
-		ByteBuffer contents = this.contents;
-		int toRead = Math.min(contents.remaining(), dst.remaining());
-		if(toRead == 0) return -1;
-		int position = dst.position();
-		int position1 = contents.position();
-		dst.put(position, contents, position1, toRead);
-		dst.position(position + toRead);
-		contents.position(position1 + toRead);
-		return toRead;
+		int read = this.read(dst, this.position);
+		if(read > 0) {
+			this.position += read;
+		}
+		return read;
+	}
+	
+	/**
+	 * reads from the given position without touching the channel's position, the segments are never modified so this is safe to call from
+	 * multiple threads at once
+	 */
+	public int read(ByteBuffer dst, long position) {
+		int toRead = (int) Math.min(this.size - position, dst.remaining());
+		if(toRead <= 0) return -1;
+		int read = 0;
+		while(read < toRead) {
+			ByteBuffer segment = this.segments[(int) (position >>> SEGMENT_SHIFT)];
+			int offset = (int) (position & (SEGMENT_SIZE - 1));
+			int length = Math.min(toRead - read, segment.limit() - offset);
+			dst.put(dst.position(), segment, offset, length);
+			dst.position(dst.position() + length);
+			position += length;
+			read += length;
+		}
+		return read;
 	}
 	
 	@Override
@@ -42,23 +124,26 @@ class SeekableByteChannelCopy implements SeekableByteChannel {
 	
 	@Override
 	public long position() throws IOException {
-		return this.contents.position();
+		return this.position;
 	}
 	
 	@Override
 	public SeekableByteChannel position(long newPosition) throws IOException {
-		this.contents.position(Math.toIntExact(newPosition));
+		if(newPosition < 0) {
+			throw new IllegalArgumentException("negative position " + newPosition);
+		}
+		this.position = newPosition;
 		return this;
 	}
 	
 	@Override
 	public long size() throws IOException {
-		return this.contents.limit();
+		return this.size;
 	}
 	
 	@Override
 	public SeekableByteChannel truncate(long size) throws IOException {
-		this.contents.limit(Math.toIntExact(size));
+		this.size = Math.min(this.size, size);
 		return this;
 	}
 	
@@ -3,12 +3,15 @@ package net.devtech.betterzipfs.impl;
 import java.io.IOException;
 import java.nio.ByteBuffer;
 import java.nio.channels.SeekableByteChannel;
-import java.util.concurrent.atomic.AtomicInteger;
 
 class SeekableByteChannelWrapper implements SeekableByteChannel {
 	final SeekableByteChannel channel;
 	boolean isClosed;
 	long pos, size = -1;
+	/**
+	 * the path whose contents are flushed when this is closed, for file systems that write entries as soon as they're done
+	 */
+	ZipPath flushOnClose;
 	
 	public SeekableByteChannelWrapper(SeekableByteChannel channel) {
 		this.channel = channel;
@@ -16,6 +19,18 @@ class SeekableByteChannelWrapper implements SeekableByteChannel {
 	
 	@Override
 	public int read(ByteBuffer dst) throws IOException {
+		// positional reads don't need to share the channel's position, so concurrent readers don't have to wait on each other
+		if(!(this.channel instanceof SeekableByteChannelCopy copy)) { // a write channel
+			return this.lockedRead(dst);
+		}
+		int read = copy.read(dst, this.pos);
+		if(read > 0) {
+			this.pos += read;
+		}
+		return read;
+	}
+	
+	private int lockedRead(ByteBuffer dst) throws IOException {
 		synchronized(this.channel) {
 			int read = this.channel.position(this.pos).read(dst);
 			this.pos = this.channel.position();
@@ -64,6 +79,9 @@ class SeekableByteChannelWrapper implements SeekableByteChannel {
 	public void close() throws IOException {
 		if(!this.isClosed) {
 			this.isClosed = true;
+			if(this.flushOnClose != null) {
+				this.flushOnClose.flushContents();
+			}
 		}
 	}
 }
@@ -0,0 +1,128 @@
+package net.devtech.betterzipfs.impl;
+
+import static net.devtech.betterzipfs.impl.EntryMetadata.u16;
+import static net.devtech.betterzipfs.impl.EntryMetadata.u32;
+
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.file.FileSystem;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.zip.ZipException;
+
+/**
+ * Reads every file in a zip in the order they're laid out in the zip file, a block of many entries at a time, instead of seeking to and
+ * reading each entry's local header and contents separately.
+ */
+public final class SequentialScan {
+	public static final int BLOCK_SIZE = 1 << 20;
+	
+	private SequentialScan() {}
+	
+	@FunctionalInterface
+	public interface Visitor {
+		/**
+		 * @param contents the uncompressed contents of the file
+		 */
+		void visit(Path path, byte[] contents) throws IOException;
+	}
+	
+	/**
+	 * @return the number of files visited
+	 */
+	public static long scan(FileSystem system, Visitor visitor) throws IOException {
+		FileSystem zipfs;
+		if(system instanceof BetterZipFS z) {
+			z.flush(null);
+			zipfs = z.zipfs;
+		} else if(ZipFSReflect.ZIPFS.isInstance(system)) {
+			zipfs = system;
+		} else {
+			throw new IllegalArgumentException(system + " is not a ZipFileSystem/ZipFS");
+		}
+		
+		// entries that are still where the zip file's central directory says they are, and the rest
+		List<Located> located = new ArrayList<>();
+		List<byte[]> modified = new ArrayList<>();
+		byte[] cen = ZipFSReflect.Records.isSupported() ? ZipFSReflect.Records.getCEN(zipfs) : null;
+		long locpos = ZipFSReflect.ZipFS.getLocPos(zipfs);
+		ZipFSReflect.ZipFS.beginRead(zipfs);
+		try {
+			for(Object inode : ZipFSReflect.ZipFS.getInodes(zipfs).values()) { // an updated entry is the value, its key is the node it replaced
+				if(ZipFSReflect.IndexNode.isDirectory(inode)) {
+					continue;
+				}
+				byte[] name = ZipFSReflect.IndexNode.getName(inode);
+				int pos = ZipFSReflect.IndexNode.getPos(inode);
+				if(inode instanceof BasicFileAttributes || cen == null || pos == -1) { // written or changed since the zip was opened
+					modified.add(name);
+				} else {
+					located.add(new Located(name, RawZipFile.record(cen, pos, locpos)));
+				}
+			}
+		} finally {
+			ZipFSReflect.ZipFS.endRead(zipfs);
+		}
+		located.sort(Comparator.comparingLong(l -> l.record.locoff()));
+		
+		long visited = 0;
+		if(!located.isEmpty()) {
+			try(FileChannel channel = FileChannel.open(ZipFSReflect.ZipFS.getZipFile(zipfs), StandardOpenOption.READ)) {
+				long size = channel.size(), blockPos = 0;
+				byte[] block = new byte[BLOCK_SIZE];
+				int blockLen = 0;
+				for(Located entry : located) {
+					RawZipFile.Record record = entry.record;
+					long loc = record.locoff();
+					if(loc < blockPos || loc + RawZipFile.LOCHDR > blockPos + blockLen) {
+						blockPos = loc;
+						blockLen = (int) Math.min(block.length, size - loc);
+						RawZipFile.read(channel, blockPos, block, blockLen);
+					}
+					int off = (int) (loc - blockPos);
+					if(blockLen - off < RawZipFile.LOCHDR || u32(block, off) != RawZipFile.LOCSIG) {
+						throw new ZipException("invalid local header for " + record.nameString());
+					}
+					long data = loc + RawZipFile.LOCHDR + u16(block, off + 26) + u16(block, off + 28), end = data + record.csize();
+					if(record.size() > Integer.MAX_VALUE - 8 || record.csize() > Integer.MAX_VALUE - 8) {
+						throw new ZipException(record.nameString() + " is too large to read into memory");
+					}
+					
+					byte[] contents;
+					if(end <= blockPos + blockLen) {
+						contents = RawZipFile.inflate(record, block, (int) (data - blockPos), (int) record.csize());
+					} else if(end - loc <= block.length) { // starts the next block
+						blockPos = loc;
+						blockLen = (int) Math.min(block.length, size - loc);
+						RawZipFile.read(channel, blockPos, block, blockLen);
+						contents = RawZipFile.inflate(record, block, (int) (data - blockPos), (int) record.csize());
+					} else { // larger than a block, so it's read on its own
+						byte[] compressed = RawZipFile.read(channel, data, (int) record.csize());
+						contents = RawZipFile.inflate(record, compressed, 0, compressed.length);
+					}
+					visitor.visit(path(system, zipfs, entry.name), contents);
+					visited++;
+				}
+			}
+		}
+		
+		for(byte[] name : modified) {
+			Path path = ZipFSReflect.ZipPath.fromName(zipfs, name, true);
+			visitor.visit(path(system, zipfs, name), Files.readAllBytes(path));
+			visited++;
+		}
+		return visited;
+	}
+	
+	private static Path path(FileSystem system, FileSystem zipfs, byte[] name) {
+		Path path = ZipFSReflect.ZipPath.fromName(zipfs, name, true);
+		return system instanceof BetterZipFS z ? new ZipPath(z, path) : path;
+	}
+	
+	record Located(byte[] name, RawZipFile.Record record) {}
+}
@@ -0,0 +1,152 @@
+package net.devtech.betterzipfs.impl;
+
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.file.FileSystem;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.zip.CRC32;
+
+/**
+ * The zip file of a write only {@link BetterZipFS}, each entry is compressed and written to the end of the file as soon as its channel is
+ * closed, and only the central directory is written on close, so nothing is buffered for longer than it takes to write it.
+ * <p>
+ * The file system keeps an empty placeholder for each written entry so it can still be listed and overwritten, but entries can't be read
+ * back. Overwriting or deleting an entry leaves its old contents in the file, but only the entries that are still in the file system are
+ * listed in the central directory.
+ */
+class StreamingZip {
+	private static final byte[] EMPTY = {};
+	private final RawZipWriter writer;
+	/**
+	 * entries that have been written to the zip file
+	 */
+	private final Set<Object> written = Collections.synchronizedSet(Collections.newSetFromMap(new IdentityHashMap<>()));
+	
+	private StreamingZip(RawZipWriter writer) {
+		this.writer = writer;
+	}
+	
+	static BetterZipFS create(Path file) throws IOException {
+		Files.deleteIfExists(file);
+		BetterZipFS fs = ZipFSInternal.wrap(ZipFileSystemProviderHolder.ZIP_FS_PROVIDER.newFileSystem(file, Map.of("create", "true")));
+		// zipfs creates an empty zip up front, but won't write to it unless it's synced
+		fs.streaming = new StreamingZip(new RawZipWriter(FileChannel.open(file, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING), true));
+		return fs;
+	}
+	
+	/**
+	 * writes an entry whose channel was closed, and leaves a placeholder for it in the file system
+	 *
+	 * @param compressed the contents of the entry, compressed with {@code method}
+	 */
+	void write(FileSystem zipfs, BasicFileAttributes entry, int method, long crc, long size, byte[] compressed) throws IOException {
+		byte[] name = ZipFSReflect.IndexNode.getName(entry);
+		long time = EntryMetadata.javaToDosTime(ZipFSReflect.Entry.getMTime(entry));
+		RawZipFile.Record record = RawZipFile.Record.of(Arrays.copyOfRange(name, 1, name.length), method, time, crc, compressed.length, size);
+		synchronized(this.writer) {
+			this.writer.write(record, compressed, 0, compressed.length);
+		}
+		
+		ZipFSReflect.Entry.setCompressionMethod(entry, ZipFSReflect.Entry.METHOD_STORED);
+		ZipFSReflect.Entry.setBytes(entry, EMPTY);
+		ZipFSReflect.Entry.setCRC(entry, crc);
+		ZipFSReflect.Entry.setSize(entry, size);
+		ZipFSReflect.Entry.setCSize(entry, 0);
+		ZipFSReflect.ZipFS.update(zipfs, entry);
+		this.written.add(entry);
+	}
+	
+	/**
+	 * leaves a deleted entry out of the central directory
+	 *
+	 * @param name the absolute path of the entry
+	 */
+	void remove(byte[] name) {
+		if(name.length <= 1) {
+			return;
+		}
+		byte[] file = Arrays.copyOfRange(name, 1, name[name.length - 1] == '/' ? name.length - 1 : name.length);
+		byte[] directory = Arrays.copyOf(file, file.length + 1);
+		directory[file.length] = '/';
+		synchronized(this.writer) {
+			this.writer.remove(file);
+			this.writer.remove(directory);
+		}
+	}
+	
+	/**
+	 * writes the entries that made it into the file system some other way, like directories and copies from other zips
+	 */
+	void drain(FileSystem zipfs) throws IOException {
+		List<BasicFileAttributes> entries = new ArrayList<>();
+		ZipFSReflect.ZipFS.beginRead(zipfs);
+		try {
+			for(Object inode : ZipFSReflect.ZipFS.getInodes(zipfs).values()) { // an updated entry is the value, its key is the node it replaced
+				if(inode instanceof BasicFileAttributes entry && !this.written.contains(entry)) {
+					entries.add(entry);
+				}
+			}
+		} finally {
+			ZipFSReflect.ZipFS.endRead(zipfs);
+		}
+		
+		for(BasicFileAttributes entry : entries) {
+			this.write(zipfs, entry);
+		}
+	}
+	
+	/**
+	 * writes an entry that made it into the file system some other way, if it hasn't been written yet
+	 */
+	void write(FileSystem zipfs, BasicFileAttributes entry) throws IOException {
+		if(this.written.contains(entry)) {
+			return;
+		}
+		byte[] name = ZipFSReflect.IndexNode.getName(entry);
+		if(name.length == 1) {
+			return; // the root
+		}
+		if(entry.isDirectory()) {
+			byte[] directory = Arrays.copyOfRange(name, 1, name[name.length - 1] == '/' ? name.length : name.length + 1);
+			directory[directory.length - 1] = '/';
+			long time = EntryMetadata.javaToDosTime(ZipFSReflect.Entry.getMTime(entry));
+			synchronized(this.writer) {
+				this.writer.write(RawZipFile.Record.of(directory, ZipFSReflect.Entry.METHOD_STORED, time, 0, 0, 0), EMPTY, 0, 0);
+			}
+			this.written.add(entry);
+		} else if(Deflation.isCompressed(entry) && ZipFSReflect.Entry.getBytes(entry) != null) {
+			byte[] compressed = ZipFSReflect.Entry.getBytes(entry);
+			this.write(zipfs, entry, ZipFSReflect.Entry.getCompressionMethod(entry), ZipFSReflect.Entry.getCRC(entry), entry.size(), compressed);
+		} else {
+			byte[] data = Files.readAllBytes(ZipFSReflect.ZipPath.fromName(zipfs, name, true));
+			CRC32 crc = new CRC32();
+			crc.update(data);
+			byte[] compressed = Deflation.deflate(data, data.length, CompressionPolicy.DEFAULT);
+			int method = ZipFSReflect.Entry.METHOD_DEFLATED;
+			if(compressed.length >= data.length) {
+				compressed = data;
+				method = ZipFSReflect.Entry.METHOD_STORED;
+			}
+			this.write(zipfs, entry, method, crc.getValue(), data.length, compressed);
+		}
+	}
+	
+	/**
+	 * writes the remaining entries and the central directory, the file system must not be synced after this
+	 */
+	void close(FileSystem zipfs) throws IOException {
+		this.drain(zipfs);
+		this.writer.close();
+		ZipFSReflect.ZipFS.clearUpdate(zipfs);
+	}
+}
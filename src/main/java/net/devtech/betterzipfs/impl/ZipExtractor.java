@@ -0,0 +1,237 @@
+package net.devtech.betterzipfs.impl;
+
+import static net.devtech.betterzipfs.impl.EntryMetadata.u16;
+import static net.devtech.betterzipfs.impl.EntryMetadata.u32;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.CopyOption;
+import java.nio.file.FileSystem;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.nio.file.attribute.FileTime;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.zip.DataFormatException;
+import java.util.zip.Inflater;
+import java.util.zip.ZipException;
+
+/**
+ * Extracts a zip to a directory, files that are still in the zip file are read from it with positional reads, so any number of them can be
+ * inflated and written at once, instead of one at a time through the file system's channels.
+ */
+public final class ZipExtractor {
+	/**
+	 * the most files and compressed bytes extracted by one task
+	 */
+	static final int BATCH_FILES = 256, BATCH_BYTES = 4 << 20;
+	private static final ThreadLocal<byte[]> INPUT = ThreadLocal.withInitial(() -> new byte[65536]);
+	private static final ThreadLocal<byte[]> OUTPUT = ThreadLocal.withInitial(() -> new byte[65536]);
+	
+	private ZipExtractor() {}
+	
+	/**
+	 * @param targetDir created if it doesn't exist
+	 * @return the number of files extracted
+	 */
+	public static long extract(FileSystem system, Path targetDir, ExtractOptions options) throws IOException {
+		FileSystem zipfs;
+		if(system instanceof BetterZipFS z) {
+			z.flush(null);
+			zipfs = z.zipfs;
+		} else if(ZipFSReflect.ZIPFS.isInstance(system)) {
+			zipfs = system;
+		} else {
+			throw new IllegalArgumentException(system + " is not a ZipFileSystem/ZipFS");
+		}
+		
+		Path root = targetDir.toAbsolutePath().normalize();
+		List<Extracted> directories = new ArrayList<>(), files = new ArrayList<>();
+		byte[] cen = ZipFSReflect.Records.isSupported() ? ZipFSReflect.Records.getCEN(zipfs) : null;
+		long locpos = ZipFSReflect.ZipFS.getLocPos(zipfs);
+		ZipFSReflect.ZipFS.beginRead(zipfs);
+		try {
+			for(Object inode : ZipFSReflect.ZipFS.getInodes(zipfs).values()) { // an updated entry is the value, its key is the node it replaced
+				byte[] name = ZipFSReflect.IndexNode.getName(inode);
+				if(name.length == 1 && name[0] == '/') {
+					continue;
+				}
+				EntryMetadata metadata = EntryMetadata.of(system, zipfs, cen, inode);
+				Path target = target(root, name);
+				int pos = ZipFSReflect.IndexNode.getPos(inode);
+				if(metadata.isDirectory()) {
+					directories.add(new Extracted(name, target, null, metadata.lastModifiedTime()));
+				} else if(inode instanceof BasicFileAttributes || cen == null || pos == -1) { // read through the file system
+					files.add(new Extracted(name, target, null, metadata.lastModifiedTime()));
+				} else {
+					files.add(new Extracted(name, target, RawZipFile.record(cen, pos, locpos), metadata.lastModifiedTime()));
+				}
+			}
+		} finally {
+			ZipFSReflect.ZipFS.endRead(zipfs);
+		}
+		
+		// every directory is created up front, so the files can be written in any order
+		Set<Path> created = new HashSet<>();
+		Files.createDirectories(root);
+		created.add(root);
+		for(Extracted directory : directories) {
+			createDirectories(directory.target, created);
+		}
+		for(Extracted file : files) {
+			createDirectories(file.target.getParent(), created);
+		}
+		
+		files.sort(Comparator.comparingLong(f -> f.record == null ? Long.MAX_VALUE : f.record.locoff())); // in the order they're in the zip file
+		boolean located = !files.isEmpty() && files.get(0).record != null;
+		try(FileChannel archive = located ? FileChannel.open(ZipFSReflect.ZipFS.getZipFile(zipfs), StandardOpenOption.READ) : null) {
+			List<CompletableFuture<?>> tasks = new ArrayList<>();
+			for(int from = 0; from < files.size(); ) { // each task extracts a run of neighbouring files
+				int to = from;
+				long bytes = 0;
+				do {
+					RawZipFile.Record record = files.get(to++).record;
+					bytes += record == null ? 0 : record.csize();
+				} while(to < files.size() && to - from < BATCH_FILES && bytes < BATCH_BYTES);
+				List<Extracted> batch = files.subList(from, to);
+				tasks.add(CompletableFuture.runAsync(() -> {
+					try {
+						for(Extracted file : batch) {
+							extract(zipfs, archive, file, options);
+						}
+					} catch(IOException e) {
+						throw ZipFSReflect.rethrow(e);
+					}
+				}, options.executor()));
+				from = to;
+			}
+			CompletableFuture.allOf(tasks.toArray(CompletableFuture[]::new)).join();
+		} catch(CompletionException e) {
+			throw ZipFSReflect.rethrow(e.getCause());
+		}
+		
+		if(options.preserveTimes()) { // after the files, since writing them changes the times of their directories
+			for(Extracted directory : directories) {
+				if(directory.lastModifiedTime != -1) {
+					Files.setLastModifiedTime(directory.target, FileTime.fromMillis(directory.lastModifiedTime));
+				}
+			}
+		}
+		return files.size();
+	}
+	
+	private static void extract(FileSystem zipfs, FileChannel archive, Extracted file, ExtractOptions options) throws IOException {
+		if(file.record == null) {
+			CopyOption[] copyOptions = options.replaceExisting() ? new CopyOption[] {StandardCopyOption.REPLACE_EXISTING} : new CopyOption[0];
+			Files.copy(ZipFSReflect.ZipPath.fromName(zipfs, file.name, true), file.target, copyOptions);
+		} else {
+			extract(archive, file.record, file.target, options.replaceExisting());
+		}
+		if(options.preserveTimes() && file.lastModifiedTime != -1) {
+			Files.setLastModifiedTime(file.target, FileTime.fromMillis(file.lastModifiedTime));
+		}
+	}
+	
+	/**
+	 * inflates an entry that's still in the zip file straight into the target file
+	 */
+	private static void extract(FileChannel archive, RawZipFile.Record record, Path target, boolean replaceExisting) throws IOException {
+		byte[] loc = RawZipFile.read(archive, record.locoff(), RawZipFile.LOCHDR);
+		if(u32(loc, 0) != RawZipFile.LOCSIG) {
+			throw new ZipException("invalid local header for " + record.nameString());
+		}
+		long pos = record.locoff() + RawZipFile.LOCHDR + u16(loc, 26) + u16(loc, 28), remaining = record.csize();
+		
+		StandardOpenOption create = replaceExisting ? StandardOpenOption.CREATE : StandardOpenOption.CREATE_NEW;
+		FileChannel out = FileChannel.open(target, StandardOpenOption.WRITE, create, StandardOpenOption.TRUNCATE_EXISTING);
+		try(out) {
+			if(record.method() == ZipFSReflect.Entry.METHOD_STORED) {
+				while(remaining > 0) {
+					long transferred = archive.transferTo(pos, remaining, out);
+					if(transferred <= 0) {
+						throw new ZipException("unexpected end of the zip file while extracting " + record.nameString());
+					}
+					pos += transferred;
+					remaining -= transferred;
+				}
+				return;
+			} else if(record.method() != ZipFSReflect.Entry.METHOD_DEFLATED) {
+				throw new ZipException("unsupported compression method " + record.method() + " for " + record.nameString());
+			}
+			
+			Inflater inflater = RawZipFile.INFLATER.get();
+			byte[] input = INPUT.get(), output = OUTPUT.get();
+			long written = 0;
+			try {
+				while(!inflater.finished()) {
+					if(inflater.needsInput()) {
+						if(remaining == 0) {
+							throw new ZipException("invalid compressed contents for " + record.nameString());
+						}
+						int len = (int) Math.min(input.length, remaining);
+						RawZipFile.read(archive, pos, input, len);
+						pos += len;
+						remaining -= len;
+						inflater.setInput(input, 0, len);
+					}
+					int inflated = inflater.inflate(output);
+					if(inflated == 0 && inflater.needsDictionary()) {
+						throw new ZipException("invalid compressed contents for " + record.nameString());
+					}
+					ByteBuffer buffer = ByteBuffer.wrap(output, 0, inflated);
+					while(buffer.hasRemaining()) {
+						out.write(buffer);
+					}
+					written += inflated;
+				}
+			} catch(DataFormatException e) {
+				throw new ZipException(e.getMessage());
+			} finally {
+				inflater.reset();
+			}
+			if(written != record.size()) {
+				throw new ZipException("invalid compressed contents for " + record.nameString());
+			}
+		} catch(IOException | RuntimeException e) {
+			Files.deleteIfExists(target); // rather than leave part of the file behind
+			throw e;
+		}
+	}
+	
+	/**
+	 * @throws ZipException if the entry would end up outside of the target directory, e.g. {@code ../../file}
+	 */
+	private static Path target(Path root, byte[] name) throws ZipException {
+		String relative = new String(name, StandardCharsets.UTF_8);
+		while(relative.startsWith("/")) {
+			relative = relative.substring(1);
+		}
+		Path target = root.resolve(relative).normalize();
+		if(!target.startsWith(root)) {
+			throw new ZipException(relative + " is outside of the directory it's being extracted to");
+		}
+		return target;
+	}
+	
+	private static void createDirectories(Path directory, Set<Path> created) throws IOException {
+		if(directory != null && created.add(directory)) {
+			Files.createDirectories(directory);
+		}
+	}
+	
+	/**
+	 * @param record the entry's central directory record, or null if it has to be read through the file system
+	 * @param lastModifiedTime -1 if it doesn't have one
+	 */
+	record Extracted(byte[] name, Path target, RawZipFile.Record record, long lastModifiedTime) {}
+}
@@ -0,0 +1,90 @@
+package net.devtech.betterzipfs.impl;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+
+/**
+ * Flight recorder events for the operations that do real work in zipfs, fields are only filled in if the event is going to be committed
+ */
+public final class ZipFSEvents {
+	private ZipFSEvents() {}
+	
+	@Name("net.devtech.betterzipfs.Sync")
+	@Label("Zip Sync")
+	@Description("Writing a zip file system to disk")
+	@Category({"BetterZipFS"})
+	public static final class Sync extends Event {
+		@Label("Archive")
+		public String archive;
+		@Label("Entries")
+		public int entries;
+		@Label("Bytes Deflated")
+		@Description("Uncompressed size of the entries that were deflated while flushing pending channels for the sync")
+		@DataAmount
+		public long bytesDeflated;
+		@Label("Archive Size")
+		@DataAmount
+		public long archiveSize;
+	}
+	
+	@Name("net.devtech.betterzipfs.Copy")
+	@Label("Zip Copy")
+	@Description("Copying an entry, or a directory with transfer, into a zip file system")
+	@Category({"BetterZipFS"})
+	public static final class Copy extends Event {
+		@Label("Archive")
+		@Description("The zip being copied into")
+		public String archive;
+		@Label("Source")
+		public String source;
+		@Label("Target")
+		public String target;
+		@Label("Entries")
+		public long entries;
+		@Label("Bytes")
+		@Description("Uncompressed size of the copied entries")
+		@DataAmount
+		public long bytes;
+		@Label("Path")
+		@Description("shared if the entry was copied within the same zip without rewriting it, raw if the compressed bytes were shared, fallback if zipfs had to copy the entry, mixed if a transfer did both")
+		public String path;
+	}
+	
+	@Name("net.devtech.betterzipfs.Flush")
+	@Label("Zip Flush")
+	@Description("Writing pending channels to a zip file system")
+	@Category({"BetterZipFS"})
+	public static final class Flush extends Event {
+		@Label("Archive")
+		public String archive;
+		@Label("Directory")
+		@Description("The directory that was flushed, or null for the whole archive")
+		public String directory;
+		@Label("Paths")
+		@Description("The number of cached paths that were flushed")
+		public long paths;
+	}
+	
+	static void commit(Sync event, Path file, int entries, long bytesDeflated) {
+		event.end();
+		if(event.shouldCommit()) {
+			event.archive = file.toString();
+			event.entries = entries;
+			event.bytesDeflated = bytesDeflated;
+			try {
+				event.archiveSize = Files.size(file);
+			} catch(IOException e) {
+				event.archiveSize = -1;
+			}
+			event.commit();
+		}
+	}
+}
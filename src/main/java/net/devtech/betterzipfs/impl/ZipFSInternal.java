@@ -1,6 +1,7 @@
 package net.devtech.betterzipfs.impl;
 
 import java.nio.file.FileSystem;
+import java.util.Map;
 
 public class ZipFSInternal {
 	public static BetterZipFS wrap(FileSystem system) {
@@ -11,4 +12,8 @@ public class ZipFSInternal {
 		ZipFSProvider instance = ZipFSProvider.getProvider();
 		return ZipFSProvider.FILE_SYSTEMS.computeIfAbsent(system, instance.wrap);
 	}
+	
+	public static BetterZipFS wrap(FileSystem system, Map<String, ?> env) {
+		return wrap(system).configure(env);
+	}
 }
@@ -1,35 +1,51 @@
 package net.devtech.betterzipfs.impl;
 
+import java.io.EOFException;
 import java.io.IOException;
 import java.io.InputStream;
 import java.net.URI;
+import java.nio.channels.FileChannel;
 import java.nio.channels.SeekableByteChannel;
 import java.nio.file.AccessMode;
 import java.nio.file.CopyOption;
 import java.nio.file.DirectoryStream;
+import java.nio.file.FileAlreadyExistsException;
 import java.nio.file.FileStore;
 import java.nio.file.FileSystem;
+import java.nio.file.FileSystemException;
+import java.nio.file.FileSystems;
 import java.nio.file.Files;
 import java.nio.file.LinkOption;
+import java.nio.file.NoSuchFileException;
 import java.nio.file.OpenOption;
 import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
 import java.nio.file.StandardOpenOption;
 import java.nio.file.attribute.BasicFileAttributes;
 import java.nio.file.attribute.FileAttribute;
 import java.nio.file.attribute.FileAttributeView;
 import java.nio.file.spi.FileSystemProvider;
+import java.nio.charset.StandardCharsets;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
 import java.util.function.Function;
 import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
+import java.util.zip.ZipException;
 
 // todo implement newOutputStream/newInputStream/newFileChannel
 public class ZipFSProvider extends FileSystemProvider {
 	static final Map<FileSystem, BetterZipFS> FILE_SYSTEMS = new HashMap<>();
+	/**
+	 * entries whose compressed contents are at least this large are copied between zips through a temporary file instead of the heap
+	 */
+	static final long RAW_FILE_COPY_THRESHOLD = 1 << 20;
 	public static boolean overrideDefaultImplementation = System.getProperty("bzfs", "override").equals("override");
 	private static ZipFSProvider instance;
 	
@@ -55,7 +71,7 @@ public class ZipFSProvider extends FileSystemProvider {
 	@Override
 	public FileSystem newFileSystem(URI uri, Map<String, ?> env) throws IOException {
 		FileSystem system = ZipFileSystemProviderHolder.ZIP_FS_PROVIDER.newFileSystem(uri, env);
-		return FILE_SYSTEMS.computeIfAbsent(system, this.wrap);
+		return FILE_SYSTEMS.computeIfAbsent(system, this.wrap).configure(env);
 	}
 	
 	@Override
@@ -77,20 +93,53 @@ public class ZipFSProvider extends FileSystemProvider {
 	@Override
 	public FileSystem newFileSystem(Path path, Map<String, ?> env) throws IOException {
 		FileSystem system = ZipFileSystemProviderHolder.ZIP_FS_PROVIDER.newFileSystem(path, env);
-		return FILE_SYSTEMS.computeIfAbsent(system, this.wrap);
+		return FILE_SYSTEMS.computeIfAbsent(system, this.wrap).configure(env);
 	}
 	
 	@Override
 	public SeekableByteChannel newByteChannel(Path path, Set<? extends OpenOption> options, FileAttribute<?>... attrs) throws IOException {
 		boolean write = options.contains(StandardOpenOption.WRITE) || options.contains(StandardOpenOption.APPEND);
 		ZipPath zip = zip(path, true);
+		if(zip.fs.streaming != null && (!write || options.contains(StandardOpenOption.APPEND))) {
+			throw new UnsupportedOperationException(zip.fs + " is write only");
+		}
 		try {
-			return zip.getOrCreateContents(() -> ZipFileSystemProviderHolder.ZIP_FS_PROVIDER.newByteChannel(zip.delegate, options, attrs), write);
+			SeekableByteChannel channel = zip.getOrCreateContents(() -> {
+				if(!write && zip.fs.mapStored) {
+					SeekableByteChannel mapped = MappedEntries.map(zip.fs.zipfs, zip.resolvedPath());
+					if(mapped != null) {
+						return mapped;
+					}
+				}
+				if(!write) {
+					BasicFileAttributes entry = ZipFileSystemProviderHolder.ZIP_FS_PROVIDER.readAttributes(zip.delegate, BasicFileAttributes.class);
+					long size = entry.size();
+					if(inflatesOnRead(entry)) {
+						zip.fs.stats.bytesInflated.add(size);
+					}
+					if(size >= EntryStreamChannel.THRESHOLD) {
+						return new EntryStreamChannel(() -> ZipFileSystemProviderHolder.ZIP_FS_PROVIDER.newInputStream(zip.delegate), size);
+					}
+				}
+				return ZipFileSystemProviderHolder.ZIP_FS_PROVIDER.newByteChannel(zip.delegate, options, attrs);
+			}, write);
+			if(zip.fs.streaming != null && channel instanceof SeekableByteChannelWrapper wrapper) {
+				wrapper.flushOnClose = zip;
+			}
+			return channel;
 		} catch(Exception e) {
 			throw ZipFSReflect.rethrow(e);
 		}
 	}
 	
+	/**
+	 * whether reading the entry inflates it, new entries are kept uncompressed until the zip is synced
+	 */
+	static boolean inflatesOnRead(BasicFileAttributes entry) {
+		int type = ZipFSReflect.Entry.getType(entry);
+		return (type == ZipFSReflect.Entry.TYPE_CEN || type == ZipFSReflect.Entry.TYPE_COPY) && ZipFSReflect.Entry.getCompressionMethod(entry) == ZipFSReflect.Entry.METHOD_DEFLATED;
+	}
+	
 	public static Stream<Path> chaoticStream(FileSystem system) throws IOException {
 		if(system instanceof BetterZipFS z) {
 			z.flush(null);
@@ -102,6 +151,20 @@ public class ZipFSProvider extends FileSystemProvider {
 		}
 	}
 	
+	public static Stream<EntryMetadata> entries(FileSystem system) {
+		FileSystem zipfs;
+		if(system instanceof BetterZipFS z) {
+			z.flush(null);
+			zipfs = z.zipfs;
+		} else if(ZipFSReflect.ZIPFS.isInstance(system)) {
+			zipfs = system;
+		} else {
+			throw new IllegalArgumentException(system + " is not a ZipFileSystem/ZipFS");
+		}
+		byte[] cen = ZipFSReflect.Records.isSupported() ? ZipFSReflect.Records.getCEN(zipfs) : null;
+		return StreamSupport.stream(InodeSpliterator.of(zipfs, n -> EntryMetadata.of(system, zipfs, cen, n)), false);
+	}
+	
 	public static Stream<Path> walk(FileSystem system) throws IOException { // binary merge
 		List<Stream<Path>> streams = new ArrayList<>();
 		for(Path directory : system.getRootDirectories()) {
@@ -124,8 +187,7 @@ public class ZipFSProvider extends FileSystemProvider {
 	}
 	
 	public static Stream<Path> unorderedOptimizedStream(FileSystem zipfs) {
-		Map<?, ?> inodes = ZipFSReflect.ZipFS.getInodes(zipfs);
-		return inodes.values().stream().map(ZipFSReflect.IndexNode::getName).map(n -> ZipFSReflect.ZipPath.fromName(zipfs, n, true));
+		return StreamSupport.stream(InodeSpliterator.of(zipfs, n -> ZipFSReflect.ZipPath.fromName(zipfs, ZipFSReflect.IndexNode.getName(n), true)), false);
 	}
 	
 	@Override
@@ -156,12 +218,18 @@ public class ZipFSProvider extends FileSystemProvider {
 	public void delete(Path path) throws IOException {
 		ZipFileSystemProviderHolder.ZIP_FS_PROVIDER.delete(unwrap(path, false));
 		ZipPath zip = zip(path, true);
+		StreamingZip streaming = zip.fs.streaming;
+		if(streaming != null) {
+			streaming.remove(zip.resolvedPath());
+		}
 		zip.deleteContents(new ZipPath.ZipContents());
 		zip.getFileSystem().remove(zip);
 	}
 	
 	@Override
 	public void copy(Path source, Path target, CopyOption... options) throws IOException {
+		ZipFSEvents.Copy event = new ZipFSEvents.Copy();
+		event.begin();
 		ZipPath from = zip(source, true), to = zip(target, true);
 		Path fromD = from.delegate;
 		Path toD = to.delegate;
@@ -169,46 +237,65 @@ public class ZipFSProvider extends FileSystemProvider {
 		to.inheritContents(from);
 		from.flushContents(); // write to zip file to compress
 		
+		if(from.fs == to.fs && from.fs.streaming == null && share(from, to, options)) {
+			to.fs.stats.rawCopies.increment();
+			event.end();
+			if(event.shouldCommit()) {
+				commit(event, fromD, toD, 1, Files.size(toD), "shared");
+			}
+			return;
+		}
+		
 		FileSystem fromS = fromD.getFileSystem(), toS = toD.getFileSystem();
 		boolean fallback = true;
 		try {
 			byte[] fromPath = ZipFSReflect.ZipPath.getResolvedPath(fromD), toPath = ZipFSReflect.ZipPath.getResolvedPath(toD);
 			BasicFileAttributes fromEntry = ZipFSReflect.ZipFS.getEntry(fromS, fromPath), toEntry = ZipFSReflect.ZipFS.getEntry(toS, toPath);
-			ZipFSReflect.ZipFS.beginWrite(toS);
-			ZipFSReflect.ZipFS.beginWrite(fromS);
+			ZipFSReflect.ZipFS.beginWrite(toS, fromS);
 			int method = ZipFSReflect.Entry.getCompressionMethod(fromEntry);
 			int type = ZipFSReflect.Entry.getType(fromEntry);
+			Deduplicator deduplicator = to.fs.deduplicator;
+			Path file = null;
 			if(type == 1 || type == 4) {
-				InputStream stream = ZipFSReflect.Entry.getCENInputStream(fromS, fromEntry);
-				ZipFSReflect.Entry.setType(fromEntry, 2);
-				ZipFSReflect.Entry.setBytes(fromEntry, stream.readAllBytes());
+				file = copyToTempFile(fromS, fromEntry, toS);
+				if(file == null) {
+					InputStream stream = ZipFSReflect.Entry.getCENInputStream(fromS, fromEntry);
+					byte[] bytes = stream.readAllBytes();
+					ZipFSReflect.Entry.setType(fromEntry, 2);
+					ZipFSReflect.Entry.setBytes(fromEntry, deduplicator == null ? bytes : deduplicator.canonical(fromEntry, bytes));
+				}
 				type = 2;
+			} else if(type == 2 && ZipFSReflect.Entry.getBytes(fromEntry) == null) {
+				type = -1; // contents are in a temporary file, zipfs copies those itself
 			}
 			
-			if(toEntry == null) {
+			if(toEntry == null && type == 2) {
 				ZipFileSystemProviderHolder.ZIP_FS_PROVIDER.newOutputStream(toD).close();
-				ZipFSReflect.ZipFS.endWrite(toS);
-				ZipFSReflect.ZipFS.endWrite(fromS);
+				ZipFSReflect.ZipFS.endWrite(toS, fromS);
 				toEntry = ZipFSReflect.ZipFS.getEntry(toS, toPath);
-				ZipFSReflect.ZipFS.beginWrite(toS);
-				ZipFSReflect.ZipFS.beginWrite(fromS);
+				ZipFSReflect.ZipFS.beginWrite(toS, fromS);
 			}
 			
 			if(toEntry != null && type == 2 && method == ZipFSReflect.Entry.getCompressionMethod(toEntry)) {
-				ZipFSReflect.Entry.setBytes(toEntry, ZipFSReflect.Entry.getBytes(fromEntry));
+				ZipFSReflect.Entry.setBytes(toEntry, file == null ? ZipFSReflect.Entry.getBytes(fromEntry) : null);
+				ZipFSReflect.Entry.setFile(toEntry, file);
 				ZipFSReflect.Entry.setExtraBytes(toEntry, ZipFSReflect.Entry.getExtraBytes(fromEntry));
 				ZipFSReflect.Entry.setCRC(toEntry, ZipFSReflect.Entry.getCRC(fromEntry));
 				ZipFSReflect.Entry.setSize(toEntry, ZipFSReflect.Entry.getSize(fromEntry));
 				ZipFSReflect.Entry.setCSize(toEntry, ZipFSReflect.Entry.getCSize(fromEntry));
-				ZipFSReflect.ZipFS.endWrite(toS);
-				ZipFSReflect.ZipFS.endWrite(fromS);
+				ZipFSReflect.ZipFS.endWrite(toS, fromS);
 				ZipFSReflect.ZipFS.update(toS, toEntry);
+				if(deduplicator != null) {
+					deduplicator.add(toEntry);
+				}
+				to.fs.stats.rawCopies.increment();
 				fallback = false;
+			} else if(file != null) {
+				Files.deleteIfExists(file);
 			}
 		} finally {
 			if(fallback) {
-				ZipFSReflect.ZipFS.endWrite(toS);
-				ZipFSReflect.ZipFS.endWrite(fromS);
+				ZipFSReflect.ZipFS.endWrite(toS, fromS);
 			}
 		}
 		
@@ -219,13 +306,396 @@ public class ZipFSProvider extends FileSystemProvider {
 				to.deleteContents(new ZipPath.ZipContents());
 				throw e;
 			}
+			to.fs.stats.fallbackCopies.increment();
+		}
+		
+		StreamingZip streaming = to.fs.streaming;
+		if(streaming != null) {
+			BasicFileAttributes entry = ZipFSReflect.ZipFS.getEntry(toS, ZipFSReflect.ZipPath.getResolvedPath(toD));
+			if(entry != null) {
+				streaming.write(toS, entry);
+			}
+		}
+		
+		event.end();
+		if(event.shouldCommit()) {
+			BasicFileAttributes entry = ZipFSReflect.ZipFS.getEntry(toS, ZipFSReflect.ZipPath.getResolvedPath(toD));
+			commit(event, fromD, toD, 1, entry == null ? 0 : entry.size(), fallback ? "fallback" : "raw");
 		}
 	}
 	
+	/**
+	 * copies a file within one file system by adding an entry that shares the source's compressed contents, so neither has to be read until
+	 * the zip is synced, writing to either path replaces its own entry and leaves the other one as it was
+	 *
+	 * @return false if the file should be copied as usual
+	 */
+	static boolean share(ZipPath from, ZipPath to, CopyOption... options) throws IOException {
+		boolean replace = false, copyAttributes = false;
+		for(CopyOption option : options) {
+			if(option == StandardCopyOption.REPLACE_EXISTING) {
+				replace = true;
+			} else if(option == StandardCopyOption.COPY_ATTRIBUTES) {
+				copyAttributes = true;
+			}
+		}
+		FileSystem zipfs = from.fs.zipfs;
+		byte[] fromPath = from.resolvedPath(), toPath = to.resolvedPath();
+		BasicFileAttributes copy;
+		ZipFSReflect.ZipFS.beginWrite(zipfs);
+		try {
+			BasicFileAttributes entry = ZipFSReflect.ZipFS.getEntry(zipfs, fromPath);
+			if(entry == null || entry.isDirectory()) {
+				return false;
+			}
+			int type = ZipFSReflect.Entry.getType(entry);
+			if(type == ZipFSReflect.Entry.TYPE_FILECH || (type == ZipFSReflect.Entry.TYPE_NEW && ZipFSReflect.Entry.getBytes(entry) == null)) {
+				return false; // temporary files are deleted once they're synced, so they can't be shared
+			}
+			if(Arrays.equals(fromPath, toPath)) {
+				return true;
+			}
+			Object existing = ZipFSReflect.ZipFS.getInode(zipfs, toPath);
+			if(existing != null) {
+				if(!replace) {
+					throw new FileAlreadyExistsException(to.toString());
+				} else if(ZipFSReflect.IndexNode.isDirectory(existing)) {
+					return false;
+				}
+			}
+			byte[] parent = parent(toPath);
+			if(parent.length > 0 && ZipFSReflect.ZipFS.getInode(zipfs, parent) == null) {
+				throw new NoSuchFileException(to.toString());
+			}
+			
+			copy = ZipFSReflect.Entry.rename(zipfs, entry, toPath); // byte[] contents are never written to, so they can be shared as is
+			if(!copyAttributes) {
+				ZipFSReflect.Entry.setTimes(copy, System.currentTimeMillis());
+			}
+			ZipFSReflect.ZipFS.update(zipfs, copy);
+		} finally {
+			ZipFSReflect.ZipFS.endWrite(zipfs);
+		}
+		Deduplicator deduplicator = to.fs.deduplicator;
+		if(deduplicator != null) {
+			deduplicator.add(copy);
+		}
+		return true;
+	}
+	
+	/**
+	 * copies the compressed contents of a large entry that's still in its zip file to a temporary file of the target file system, channel
+	 * to channel, so the entry never has to be read onto the heap, the target file system streams the temporary file into its zip when it's
+	 * synced
+	 *
+	 * @return null if the entry should be read into memory instead
+	 */
+	static Path copyToTempFile(FileSystem fromS, BasicFileAttributes fromEntry, FileSystem toS) throws IOException {
+		long csize = ZipFSReflect.Entry.getCSize(fromEntry);
+		if(csize < RAW_FILE_COPY_THRESHOLD) {
+			return null;
+		}
+		Path zip = ZipFSReflect.ZipFS.getZipFile(fromS);
+		if(zip.getFileSystem() != FileSystems.getDefault()) {
+			return null;
+		}
+		Path temp = ZipFSReflect.ZipFS.createTempFile(toS);
+		if(temp == null) {
+			return null;
+		}
+		try(FileChannel from = FileChannel.open(zip, StandardOpenOption.READ); FileChannel to = FileChannel.open(temp, StandardOpenOption.WRITE)) {
+			long loc = ZipFSReflect.ZipFS.getLocPos(fromS) + ZipFSReflect.Entry.getLocOff(fromEntry);
+			byte[] header = RawZipFile.read(from, loc, RawZipFile.LOCHDR);
+			if(EntryMetadata.u32(header, 0) != RawZipFile.LOCSIG) {
+				throw new ZipException("invalid local header for " + new String(ZipFSReflect.IndexNode.getName(fromEntry), StandardCharsets.UTF_8));
+			}
+			long pos = loc + RawZipFile.LOCHDR + EntryMetadata.u16(header, 26) + EntryMetadata.u16(header, 28), remaining = csize;
+			while(remaining > 0) {
+				long transferred = from.transferTo(pos, remaining, to);
+				if(transferred <= 0) {
+					throw new EOFException("unexpected end of " + zip);
+				}
+				pos += transferred;
+				remaining -= transferred;
+			}
+		} catch(IOException | RuntimeException e) {
+			Files.deleteIfExists(temp);
+			throw e;
+		}
+		return temp;
+	}
+	
+	static void commit(ZipFSEvents.Copy event, Path source, Path target, long entries, long bytes, String path) {
+		event.archive = ZipFSReflect.ZipFS.getZipFile(target.getFileSystem()).toString();
+		event.source = source.toString();
+		event.target = target.toString();
+		event.entries = entries;
+		event.bytes = bytes;
+		event.path = path;
+		event.commit();
+	}
+	
+	/**
+	 * copies every entry in {@code srcDir} to the same relative location in {@code dstDir}, this holds both file systems' locks once for the
+	 * whole batch and creates the target entries directly with the source's compressed bytes
+	 *
+	 * @return the number of files transferred
+	 */
+	public static long transfer(Path srcDir, Path dstDir, CopyOption... options) throws IOException {
+		boolean replace = false, copyAttributes = false;
+		for(CopyOption option : options) {
+			if(option == StandardCopyOption.REPLACE_EXISTING) {
+				replace = true;
+			} else if(option == StandardCopyOption.COPY_ATTRIBUTES) {
+				copyAttributes = true;
+			}
+		}
+		
+		ZipFSEvents.Copy event = new ZipFSEvents.Copy();
+		event.begin();
+		ZipPath from = zip(srcDir, true), to = zip(dstDir, true);
+		from.getFileSystem().flush(from); // write pending channels to the zip so their entries are visible
+		to.getFileSystem().flush(to);
+		
+		FileSystem fromS = from.delegate.getFileSystem(), toS = to.delegate.getFileSystem();
+		byte[] fromPath = ZipFSReflect.ZipPath.getResolvedPath(from.delegate), toPath = ZipFSReflect.ZipPath.getResolvedPath(to.delegate);
+		List<byte[]> fallback = new ArrayList<>(); // alternating source, target
+		long transferred = 0, copied = 0;
+		ZipFSReflect.ZipFS.beginWrite(toS, fromS);
+		try {
+			// snapshot the subtree first, so a transfer within the same file system doesn't see its own output
+			List<Object> nodes = new ArrayList<>();
+			for(Object inode : ZipFSReflect.ZipFS.getInodes(fromS).keySet()) {
+				byte[] name = ZipFSReflect.IndexNode.getName(inode);
+				if(isInDirectory(fromPath, name) && !ZipFSReflect.IndexNode.isPseudoDirectory(inode)) {
+					nodes.add(inode);
+				}
+			}
+			
+			if(!replace) {
+				for(Object node : nodes) {
+					byte[] target = rebase(ZipFSReflect.IndexNode.getName(node), fromPath, toPath);
+					if(!ZipFSReflect.IndexNode.isDirectory(node) && ZipFSReflect.ZipFS.getInode(toS, target) != null) {
+						throw new FileAlreadyExistsException(new String(target, StandardCharsets.UTF_8));
+					}
+				}
+			}
+			
+			Deduplicator deduplicator = to.fs.deduplicator;
+			Set<ByteArrayWrapper> directories = new HashSet<>();
+			for(Object node : nodes) {
+				byte[] name = ZipFSReflect.IndexNode.getName(node), target = rebase(name, fromPath, toPath);
+				if(ZipFSReflect.IndexNode.isDirectory(node)) {
+					createDirectories(toS, target, directories);
+					continue;
+				}
+				
+				BasicFileAttributes fromEntry = ZipFSReflect.ZipFS.getEntry(fromS, name);
+				int type = ZipFSReflect.Entry.getType(fromEntry);
+				byte[] bytes = null;
+				Path file = null;
+				if(fromS == toS && (type != ZipFSReflect.Entry.TYPE_NEW || ZipFSReflect.Entry.getBytes(fromEntry) != null) && type != ZipFSReflect.Entry.TYPE_FILECH) {
+					createDirectories(toS, parent(target), directories);
+					BasicFileAttributes toEntry = ZipFSReflect.Entry.rename(toS, fromEntry, target); // shares the source's contents
+					if(!copyAttributes) {
+						ZipFSReflect.Entry.setTimes(toEntry, System.currentTimeMillis());
+					}
+					ZipFSReflect.ZipFS.update(toS, toEntry);
+					copied += toEntry.size();
+					transferred++;
+					continue;
+				} else if(type == ZipFSReflect.Entry.TYPE_CEN || type == ZipFSReflect.Entry.TYPE_COPY) {
+					file = copyToTempFile(fromS, fromEntry, toS);
+					if(file == null) {
+						try(InputStream stream = ZipFSReflect.Entry.getCENInputStream(fromS, fromEntry)) {
+							bytes = stream.readAllBytes();
+						}
+						if(deduplicator != null) {
+							bytes = deduplicator.canonical(fromEntry, bytes);
+						}
+					}
+				} else if(type == ZipFSReflect.Entry.TYPE_NEW && ZipFSReflect.Entry.getFile(fromEntry) == null) {
+					bytes = ZipFSReflect.Entry.getBytes(fromEntry);
+				} else { // contents are in a temporary file
+					fallback.add(name);
+					fallback.add(target);
+					continue;
+				}
+				
+				createDirectories(toS, parent(target), directories);
+				BasicFileAttributes toEntry = ZipFSReflect.Entry.create(toS, target, false, ZipFSReflect.Entry.getCompressionMethod(fromEntry));
+				ZipFSReflect.Entry.setBytes(toEntry, bytes);
+				ZipFSReflect.Entry.setFile(toEntry, file);
+				ZipFSReflect.Entry.setExtraBytes(toEntry, ZipFSReflect.Entry.getExtraBytes(fromEntry));
+				ZipFSReflect.Entry.setCRC(toEntry, ZipFSReflect.Entry.getCRC(fromEntry));
+				ZipFSReflect.Entry.setSize(toEntry, ZipFSReflect.Entry.getSize(fromEntry));
+				ZipFSReflect.Entry.setCSize(toEntry, ZipFSReflect.Entry.getCSize(fromEntry));
+				ZipFSReflect.Entry.setFlag(toEntry, ZipFSReflect.Entry.getFlag(fromEntry));
+				if(copyAttributes) {
+					ZipFSReflect.Entry.copyTimes(fromEntry, toEntry);
+				}
+				ZipFSReflect.ZipFS.update(toS, toEntry);
+				if(deduplicator != null) {
+					deduplicator.add(toEntry);
+				}
+				copied += toEntry.size();
+				transferred++;
+			}
+		} finally {
+			ZipFSReflect.ZipFS.endWrite(toS, fromS);
+		}
+		
+		for(int i = 0; i < fallback.size(); i += 2) {
+			Path fromD = ZipFSReflect.ZipPath.fromName(fromS, fallback.get(i), true);
+			Path toD = ZipFSReflect.ZipPath.fromName(toS, fallback.get(i + 1), true);
+			ZipFileSystemProviderHolder.ZIP_FS_PROVIDER.copy(fromD, toD, options);
+			to.fs.stats.fallbackCopies.increment();
+			copied += ZipFileSystemProviderHolder.ZIP_FS_PROVIDER.readAttributes(toD, BasicFileAttributes.class).size();
+			transferred++;
+		}
+		to.fs.stats.rawCopies.add(transferred - fallback.size() / 2);
+		
+		for(ZipPath path : to.getFileSystem().pathCache) {
+			if(path.startsWith(to)) {
+				path.deleteContents(new ZipPath.ZipContents());
+			}
+		}
+		StreamingZip streaming = to.fs.streaming;
+		if(streaming != null) {
+			streaming.drain(toS);
+		}
+		
+		event.end();
+		if(event.shouldCommit()) {
+			commit(event, from.delegate, to.delegate, transferred, copied, fallback.isEmpty() ? "raw" : transferred == fallback.size() / 2 ? "fallback" : "mixed");
+		}
+		return transferred;
+	}
+	
+	static boolean isInDirectory(byte[] directory, byte[] name) {
+		if(directory.length == 1) { // root
+			return name.length > 1;
+		}
+		int len = directory.length;
+		return name.length >= len && Arrays.equals(directory, 0, len, name, 0, len) && (name.length == len || name[len] == '/');
+	}
+	
+	static byte[] rebase(byte[] name, byte[] fromDirectory, byte[] toDirectory) {
+		int off = fromDirectory.length == 1 ? 0 : fromDirectory.length;
+		if(toDirectory.length == 1) {
+			return Arrays.copyOfRange(name, off, name.length);
+		}
+		byte[] rebased = Arrays.copyOf(toDirectory, toDirectory.length + name.length - off);
+		System.arraycopy(name, off, rebased, toDirectory.length, name.length - off);
+		return rebased;
+	}
+	
+	static byte[] parent(byte[] name) {
+		int off = name.length - 1;
+		while(off > 0 && name[off] != '/') {
+			off--;
+		}
+		return Arrays.copyOf(name, off);
+	}
+	
+	static void createDirectories(FileSystem zipfs, byte[] directory, Set<ByteArrayWrapper> created) {
+		if(directory.length <= 1 || !created.add(new ByteArrayWrapper(directory)) || ZipFSReflect.ZipFS.getInode(zipfs, directory) != null) {
+			return;
+		}
+		createDirectories(zipfs, parent(directory), created);
+		ZipFSReflect.ZipFS.update(zipfs, ZipFSReflect.Entry.create(zipfs, directory, true, ZipFSReflect.Entry.METHOD_STORED));
+	}
+	
 	@Override
 	public void move(Path source, Path target, CopyOption... options) throws IOException {
-		this.copy(source, target, options);
-		Files.delete(source);
+		if(source instanceof ZipPath from && target instanceof ZipPath to && from.fs == to.fs && from.fs.streaming == null) {
+			rename(from.unmirror(), to.unmirror(), options);
+		} else {
+			this.copy(source, target, options);
+			Files.delete(source);
+		}
+	}
+	
+	/**
+	 * moves a file or a whole directory within one file system by renaming the entries, their contents stay where they are, and the contents
+	 * cached by their paths are handed to the paths of the new names
+	 */
+	static void rename(ZipPath from, ZipPath to, CopyOption... options) throws IOException {
+		boolean replace = false;
+		for(CopyOption option : options) {
+			if(option == StandardCopyOption.REPLACE_EXISTING) {
+				replace = true;
+			}
+		}
+		BetterZipFS fs = from.fs;
+		FileSystem zipfs = fs.zipfs;
+		byte[] fromPath = from.resolvedPath(), toPath = to.resolvedPath();
+		if(Arrays.equals(fromPath, toPath)) {
+			return;
+		} else if(fromPath.length == 1) {
+			throw new FileSystemException(from.toString(), to.toString(), "the root directory can't be moved");
+		} else if(isInDirectory(fromPath, toPath)) {
+			throw new FileSystemException(from.toString(), to.toString(), "a directory can't be moved into itself");
+		}
+		
+		// pending writes have to be in the entries before they're renamed or replaced
+		List<ZipPath> moved = new ArrayList<>();
+		for(ZipPath path : fs.pathCache) {
+			if(isInDirectory(fromPath, path.resolvedPath())) {
+				path.flushContents();
+				moved.add(path);
+			} else if(Arrays.equals(toPath, path.resolvedPath())) {
+				path.flushContents();
+			}
+		}
+		
+		ZipFSReflect.ZipFS.beginWrite(zipfs);
+		try {
+			if(ZipFSReflect.ZipFS.getInode(zipfs, fromPath) == null) {
+				throw new NoSuchFileException(from.toString());
+			}
+			if(ZipFSReflect.ZipFS.getInode(zipfs, toPath) != null) {
+				if(!replace) {
+					throw new FileAlreadyExistsException(to.toString());
+				}
+				ZipFileSystemProviderHolder.ZIP_FS_PROVIDER.delete(to.delegate); // fails if it's a directory that isn't empty
+			}
+			byte[] parent = parent(toPath);
+			if(parent.length > 0 && ZipFSReflect.ZipFS.getInode(zipfs, parent) == null) {
+				throw new NoSuchFileException(to.toString());
+			}
+			
+			List<byte[]> names = new ArrayList<>();
+			for(Object inode : ZipFSReflect.ZipFS.getInodes(zipfs).keySet()) {
+				byte[] name = ZipFSReflect.IndexNode.getName(inode);
+				if(isInDirectory(fromPath, name)) {
+					names.add(name);
+				}
+			}
+			names.sort(Arrays::compare); // directories before their contents
+			Set<ByteArrayWrapper> directories = new HashSet<>();
+			for(byte[] name : names) {
+				byte[] target = rebase(name, fromPath, toPath);
+				BasicFileAttributes entry = ZipFSReflect.ZipFS.getEntry(zipfs, name);
+				if(entry == null) { // a directory that doesn't have an entry of its own
+					createDirectories(zipfs, target, directories);
+				} else {
+					ZipFSReflect.ZipFS.update(zipfs, ZipFSReflect.Entry.rename(zipfs, entry, target));
+				}
+			}
+			for(int i = names.size() - 1; i >= 0; i--) { // contents before their directories
+				ZipFileSystemProviderHolder.ZIP_FS_PROVIDER.delete(ZipFSReflect.ZipPath.fromName(zipfs, names.get(i), true));
+			}
+		} finally {
+			ZipFSReflect.ZipFS.endWrite(zipfs);
+		}
+		
+		for(ZipPath path : moved) {
+			Path renamed = ZipFSReflect.ZipPath.fromName(zipfs, rebase(path.resolvedPath(), fromPath, toPath), true);
+			fs.wrapCached(new ZipPath(fs, renamed)).inheritContents(path);
+			path.deleteContents(new ZipPath.ZipContents());
+			fs.remove(path);
+		}
 	}
 	
 	@Override
@@ -1,6 +1,7 @@
 package net.devtech.betterzipfs.impl;
 
 import java.io.InputStream;
+import java.io.OutputStream;
 import java.lang.invoke.MethodHandle;
 import java.lang.invoke.MethodHandles;
 import java.lang.invoke.MethodType;
@@ -10,15 +11,41 @@ import java.nio.file.FileSystem;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.attribute.BasicFileAttributes;
+import java.nio.file.attribute.FileAttribute;
 import java.util.LinkedHashMap;
 import java.util.Map;
 
 public class ZipFSReflect {
 	public static final Class<?> ZIPFS;
 	private static final MethodHandle ZIPFS_SYNC, ZIPFS_ENTRY, ZIPPATH_RESOLVED_PATH, ZIPFS_GETZIPFILE, ZIPFS_UPDATE, BEGIN_WRITE, END_WRITE,
-			ENTRY_IN_STREAM_CTOR, BEGIN_READ, END_READ, ZIPPATH_CTOR;
+			ENTRY_IN_STREAM_CTOR, BEGIN_READ, END_READ, ZIPPATH_CTOR, ZIPFS_GETINODE, ENTRY_CTOR, POSIX_ENTRY_CTOR,
+			ENTRY_COPY_CTOR, POSIX_ENTRY_COPY_CTOR, INODE_SET_NAME;
 	private static final VarHandle ENTRY_METHOD, ENTRY_BYTES, ZIPFS_HAS_UPDATE, ENTRY_CRC, ENTRY_CSIZE, ENTRY_SIZE, ENTRY_EXTRA, ENTRY_TYPE,
-			ZIPFS_CH, ZIPFS_INODES, INODE_NAME;
+			ZIPFS_CH, ZIPFS_INODES, INODE_NAME, INODE_ISDIR, INODE_POS, ENTRY_FLAG, ENTRY_MTIME, ENTRY_ATIME, ENTRY_CTIME, ENTRY_FILE,
+			ZIPFS_SUPPORT_POSIX, ENTRY_LOCOFF, ZIPFS_LOCPOS;
+	/**
+	 * whether EntryInputStream takes the zip's channel as a parameter (jdk 16) or reads it off the file system itself (jdk 17+)
+	 */
+	private static final boolean ENTRY_IN_STREAM_TAKES_CH;
+	/**
+	 * the methods ZipFileSystem#sync uses to write records, null if this jdk's zipfs doesn't have them
+	 */
+	private static final Writer WRITER;
+	/**
+	 * the entry the channels zipfs opens for writing write to when they're closed, null if this jdk's zipfs doesn't have it
+	 */
+	private static final VarHandle ENTRY_OUT_CH_ENTRY;
+	/**
+	 * ZipFileSystem#getTempPathForEntry, null if this jdk's zipfs doesn't have it
+	 */
+	private static final MethodHandle ZIPFS_TEMP_PATH;
+	/**
+	 * the array behind the channels ZipFileSystem#newByteChannel returns for reading, null if this jdk's zipfs doesn't have it
+	 */
+	private static final VarHandle BYTE_ARRAY_CH_BUF;
+	
+	private record Writer(MethodHandle writeLOC, MethodHandle writeCEN, MethodHandle writeEntry, MethodHandle copyLOCEntry, MethodHandle writeEND,
+	                      VarHandle cen, VarHandle end, VarHandle forceEnd64, VarHandle cenoff, VarHandle cenlen, VarHandle centot) {}
 	
 	static {
 		boolean needsUnsafe = false;
@@ -52,7 +79,7 @@ public class ZipFSReflect {
 			
 			MethodHandles.Lookup lookup = MethodHandles.lookup();
 			MethodHandles.Lookup privateLookup = MethodHandles.privateLookupIn(zipfs, lookup);
-			Class<?> entry = null, entryStream = null, inode = null;
+			Class<?> entry = null, entryStream = null, inode = null, posixEntry = null, entryOutCh = null;
 			for(Class<?> inner : zipfs.getDeclaredClasses()) {
 				String name = inner.getSimpleName();
 				if(name.equals("Entry")) {
@@ -61,12 +88,35 @@ public class ZipFSReflect {
 					entryStream = inner;
 				} else if(name.equals("IndexNode")) {
 					inode = inner;
+				} else if(name.equals("PosixEntry")) {
+					posixEntry = inner;
+				} else if(name.equals("EntryOutputChannel")) {
+					entryOutCh = inner;
 				}
 			}
 			
 			ZIPFS_CH = privateLookup.findVarHandle(zipfs, "ch", SeekableByteChannel.class);
-			ENTRY_IN_STREAM_CTOR = privateLookup.findConstructor(entryStream, MethodType.methodType(void.class, zipfs, entry, SeekableByteChannel.class));
+			MethodHandle entryStreamCtor;
+			boolean takesCh = true;
+			try {
+				entryStreamCtor = privateLookup.findConstructor(entryStream, MethodType.methodType(void.class, zipfs, entry, SeekableByteChannel.class));
+			} catch(NoSuchMethodException e) {
+				entryStreamCtor = privateLookup.findConstructor(entryStream, MethodType.methodType(void.class, zipfs, entry));
+				takesCh = false;
+			}
+			ENTRY_IN_STREAM_CTOR = entryStreamCtor;
+			ENTRY_IN_STREAM_TAKES_CH = takesCh;
 			INODE_NAME = privateLookup.findVarHandle(inode, "name", byte[].class);
+			INODE_ISDIR = privateLookup.findVarHandle(inode, "isdir", boolean.class);
+			INODE_POS = privateLookup.findVarHandle(inode, "pos", int.class);
+			ZIPFS_GETINODE = privateLookup.findVirtual(zipfs, "getInode", MethodType.methodType(inode, byte[].class));
+			ZIPFS_SUPPORT_POSIX = privateLookup.findVarHandle(zipfs, "supportPosix", boolean.class);
+			MethodType newEntry = MethodType.methodType(void.class, byte[].class, int.class, boolean.class, int.class, FileAttribute[].class);
+			ENTRY_CTOR = privateLookup.findConstructor(entry, newEntry);
+			POSIX_ENTRY_CTOR = posixEntry == null ? null : privateLookup.findConstructor(posixEntry, newEntry.insertParameterTypes(0, zipfs));
+			ENTRY_COPY_CTOR = privateLookup.findConstructor(entry, MethodType.methodType(void.class, entry, int.class));
+			POSIX_ENTRY_COPY_CTOR = posixEntry == null ? null : privateLookup.findConstructor(posixEntry, MethodType.methodType(void.class, zipfs, posixEntry, int.class));
+			INODE_SET_NAME = privateLookup.findVirtual(inode, "name", MethodType.methodType(void.class, byte[].class));
 			ZIPFS_SYNC = privateLookup.findVirtual(zipfs, "sync", MethodType.methodType(void.class));
 			ZIPFS_ENTRY = privateLookup.findVirtual(zipfs, "getEntry", MethodType.methodType(entry, byte[].class));
 			ZIPFS_GETZIPFILE = privateLookup.findVirtual(zipfs, "getZipFile", MethodType.methodType(Path.class));
@@ -76,7 +126,8 @@ public class ZipFSReflect {
 			ENTRY_CRC = privateLookup.findVarHandle(entry, "crc", long.class);
 			ENTRY_CSIZE = privateLookup.findVarHandle(entry, "csize", long.class);
 			ENTRY_SIZE = privateLookup.findVarHandle(entry, "size", long.class);
-			ZIPPATH_RESOLVED_PATH = privateLookup.findVirtual(zipPath, "getResolvedPath", MethodType.methodType(byte[].class));
+			ZIPPATH_RESOLVED_PATH = privateLookup.findVirtual(zipPath, "getResolvedPath", MethodType.methodType(byte[].class))
+			                                     .asType(MethodType.methodType(byte[].class, Path.class));
 			ZIPPATH_CTOR = privateLookup.findConstructor(zipPath, MethodType.methodType(void.class, zipfs, byte[].class, boolean.class));
 			ZIPFS_HAS_UPDATE = privateLookup.findVarHandle(zipfs, "hasUpdate", boolean.class);
 			ZIPFS_INODES = privateLookup.findVarHandle(zipfs, "inodes", LinkedHashMap.class);
@@ -86,6 +137,56 @@ public class ZipFSReflect {
 			END_READ = privateLookup.findVirtual(zipfs, "endRead", MethodType.methodType(void.class));
 			ENTRY_EXTRA = privateLookup.findVarHandle(entry, "extra", byte[].class);
 			ENTRY_TYPE = privateLookup.findVarHandle(entry, "type", int.class);
+			ENTRY_FLAG = privateLookup.findVarHandle(entry, "flag", int.class);
+			ENTRY_MTIME = privateLookup.findVarHandle(entry, "mtime", long.class);
+			ENTRY_ATIME = privateLookup.findVarHandle(entry, "atime", long.class);
+			ENTRY_CTIME = privateLookup.findVarHandle(entry, "ctime", long.class);
+			ENTRY_FILE = privateLookup.findVarHandle(entry, "file", Path.class);
+			ENTRY_LOCOFF = privateLookup.findVarHandle(entry, "locoff", long.class);
+			ZIPFS_LOCPOS = privateLookup.findVarHandle(zipfs, "locpos", long.class);
+			
+			Writer writer = null;
+			try {
+				Class<?> end = Class.forName("jdk.nio.zipfs.ZipFileSystem$END");
+				writer = new Writer(privateLookup.findVirtual(entry, "writeLOC", MethodType.methodType(int.class, OutputStream.class)),
+						privateLookup.findVirtual(entry, "writeCEN", MethodType.methodType(int.class, OutputStream.class)),
+						privateLookup.findVirtual(zipfs, "writeEntry", MethodType.methodType(long.class, entry, OutputStream.class)),
+						privateLookup.findVirtual(zipfs, "copyLOCEntry", MethodType.methodType(long.class, entry, boolean.class, OutputStream.class, long.class, byte[].class)),
+						privateLookup.findVirtual(end, "write", MethodType.methodType(void.class, OutputStream.class, long.class, boolean.class)),
+						privateLookup.findVarHandle(zipfs, "cen", byte[].class),
+						privateLookup.findVarHandle(zipfs, "end", end),
+						privateLookup.findVarHandle(zipfs, "forceEnd64", boolean.class),
+						privateLookup.findVarHandle(end, "cenoff", long.class),
+						privateLookup.findVarHandle(end, "cenlen", long.class),
+						privateLookup.findVarHandle(end, "centot", int.class));
+			} catch(ReflectiveOperationException e) {
+				// incremental sync is unsupported
+			}
+			WRITER = writer;
+			VarHandle outChEntry = null;
+			try {
+				if(entryOutCh != null) {
+					outChEntry = privateLookup.findVarHandle(entryOutCh, "e", entry);
+				}
+			} catch(ReflectiveOperationException e) {
+				// deduplicating writes is unsupported
+			}
+			ENTRY_OUT_CH_ENTRY = outChEntry;
+			MethodHandle tempPath = null;
+			try {
+				tempPath = privateLookup.findVirtual(zipfs, "getTempPathForEntry", MethodType.methodType(Path.class, byte[].class));
+			} catch(ReflectiveOperationException e) {
+				// copying large entries through temporary files is unsupported
+			}
+			ZIPFS_TEMP_PATH = tempPath;
+			VarHandle byteArrayChBuf = null;
+			try {
+				Class<?> byteArrayCh = Class.forName("jdk.nio.zipfs.ByteArrayChannel");
+				byteArrayChBuf = MethodHandles.privateLookupIn(byteArrayCh, lookup).findVarHandle(byteArrayCh, "buf", byte[].class);
+			} catch(ReflectiveOperationException e) {
+				// read channels are copied
+			}
+			BYTE_ARRAY_CH_BUF = byteArrayChBuf;
 			
 			ZIPFS = zipfs;
 		} catch(ReflectiveOperationException e) {
@@ -115,9 +216,29 @@ public class ZipFSReflect {
 		public static byte[] getName(Object inode) {
 			return (byte[]) INODE_NAME.get(inode);
 		}
+		
+		public static boolean isDirectory(Object inode) {
+			return (boolean) INODE_ISDIR.get(inode);
+		}
+		
+		/**
+		 * @return the offset of the node's central directory record in the zip's cen, or -1 if it isn't from the zip file
+		 */
+		public static int getPos(Object inode) {
+			return (int) INODE_POS.get(inode);
+		}
+		
+		/**
+		 * @return true if the node is only an implied parent directory, and has no entry of its own
+		 */
+		public static boolean isPseudoDirectory(Object inode) {
+			return !(inode instanceof BasicFileAttributes) && (int) INODE_POS.get(inode) == -1;
+		}
 	}
 	
 	public static final class ZipFS {
+		private static final Object WRITE_ORDER_TIE = new Object();
+		
 		public static Map<?, ?> getInodes(FileSystem system) {
 			return (Map<?, ?>) ZIPFS_INODES.get(system);
 		}
@@ -138,6 +259,31 @@ public class ZipFSReflect {
 			}
 		}
 		
+		/**
+		 * takes the write locks of both file systems, always in the same order no matter which way around they're given, so threads copying
+		 * between the same two file systems in opposite directions don't deadlock
+		 */
+		public static void beginWrite(FileSystem a, FileSystem b) {
+			int hashA = System.identityHashCode(a), hashB = System.identityHashCode(b);
+			if(hashA < hashB) {
+				beginWrite(a);
+				beginWrite(b);
+			} else if(hashA > hashB) {
+				beginWrite(b);
+				beginWrite(a);
+			} else {
+				synchronized(WRITE_ORDER_TIE) {
+					beginWrite(a);
+					beginWrite(b);
+				}
+			}
+		}
+		
+		public static void endWrite(FileSystem a, FileSystem b) {
+			endWrite(a);
+			endWrite(b);
+		}
+		
 		public static void beginRead(FileSystem system) {
 			try {
 				BEGIN_READ.invoke(system);
@@ -182,6 +328,28 @@ public class ZipFSReflect {
 			}
 		}
 		
+		/**
+		 * @return the IndexNode for the given path, this includes pseudo directories, unlike {@link #getEntry(FileSystem, byte[])}
+		 */
+		public static Object getInode(FileSystem system, byte[] name) {
+			try {
+				return ZIPFS_GETINODE.invoke(system, name);
+			} catch(Throwable e) {
+				throw rethrow(e);
+			}
+		}
+		
+		/**
+		 * @return the offset of the first local header in the zip file, this is non-zero if the zip has data prepended to it
+		 */
+		public static long getLocPos(FileSystem system) {
+			return (long) ZIPFS_LOCPOS.get(system);
+		}
+		
+		public static boolean supportsPosix(FileSystem system) {
+			return (boolean) ZIPFS_SUPPORT_POSIX.get(system);
+		}
+		
 		public static Path getZipFile(FileSystem system) {
 			try {
 				return (Path) ZIPFS_GETZIPFILE.invoke(system);
@@ -194,6 +362,14 @@ public class ZipFSReflect {
 			ZIPFS_HAS_UPDATE.set(system, true);
 		}
 		
+		public static boolean getHasUpdate(FileSystem system) {
+			return (boolean) ZIPFS_HAS_UPDATE.get(system);
+		}
+		
+		public static void clearUpdate(FileSystem system) {
+			ZIPFS_HAS_UPDATE.set(system, false);
+		}
+		
 		public static void update(FileSystem system, BasicFileAttributes entry) {
 			try {
 				ZIPFS_UPDATE.invoke(system, entry);
@@ -202,13 +378,79 @@ public class ZipFSReflect {
 			}
 		}
 		
+		/**
+		 * creates an empty temporary file next to the zip file, the file system deletes it once an entry backed by it is synced, or when
+		 * it's closed
+		 *
+		 * @return null if this jdk's zipfs can't create them
+		 */
+		public static Path createTempFile(FileSystem system) {
+			if(ZIPFS_TEMP_PATH == null) {
+				return null;
+			}
+			try {
+				return (Path) ZIPFS_TEMP_PATH.invoke(system, (byte[]) null);
+			} catch(Throwable e) {
+				throw rethrow(e);
+			}
+		}
+		
 	}
 	
 	public static final class Entry {
+		public static final int TYPE_CEN = 1, TYPE_NEW = 2, TYPE_FILECH = 3, TYPE_COPY = 4;
+		public static final int METHOD_STORED = 0, METHOD_DEFLATED = 8;
+		public static final int FLAG_DATADESCR = 0x08;
+		
+		/**
+		 * creates a new (type 2) entry for the given file system, the entry is not added to the file system until {@link ZipFS#update(FileSystem,
+		 * BasicFileAttributes)} is called
+		 */
+		public static BasicFileAttributes create(FileSystem zipfs, byte[] name, boolean isDirectory, int method) {
+			try {
+				if(POSIX_ENTRY_CTOR != null && ZipFS.supportsPosix(zipfs)) {
+					return (BasicFileAttributes) POSIX_ENTRY_CTOR.invoke(zipfs, name, TYPE_NEW, isDirectory, method, new FileAttribute<?>[0]);
+				} else {
+					return (BasicFileAttributes) ENTRY_CTOR.invoke(name, TYPE_NEW, isDirectory, method, new FileAttribute<?>[0]);
+				}
+			} catch(Throwable e) {
+				throw rethrow(e);
+			}
+		}
+		
+		/**
+		 * creates a copy of the entry with a different name that keeps its contents where they are, like ZipFileSystem#copyFile does for a
+		 * rename, the copy is not added to the file system until {@link ZipFS#update(FileSystem, BasicFileAttributes)} is called
+		 */
+		public static BasicFileAttributes rename(FileSystem zipfs, BasicFileAttributes entry, byte[] name) {
+			try {
+				int type = getType(entry);
+				int copyType = type == TYPE_NEW || type == TYPE_FILECH ? type : TYPE_COPY;
+				BasicFileAttributes renamed;
+				if(POSIX_ENTRY_COPY_CTOR != null && POSIX_ENTRY_COPY_CTOR.type().returnType().isInstance(entry)) {
+					renamed = (BasicFileAttributes) POSIX_ENTRY_COPY_CTOR.invoke(zipfs, entry, copyType);
+				} else {
+					renamed = (BasicFileAttributes) ENTRY_COPY_CTOR.invoke(entry, copyType);
+				}
+				INODE_SET_NAME.invoke(renamed, name);
+				if(copyType == type) {
+					setBytes(renamed, getBytes(entry));
+					setFile(renamed, getFile(entry));
+				}
+				return renamed;
+			} catch(Throwable e) {
+				throw rethrow(e);
+			}
+		}
+		
 		public static int getCompressionMethod(BasicFileAttributes entry) {
 			return (int) ENTRY_METHOD.get(entry);
 		}
 		
+		public static void setCompressionMethod(BasicFileAttributes entry, int method) {
+			ENTRY_METHOD.set(entry, method);
+		}
+		
 		public static byte[] getBytes(BasicFileAttributes entry) {
 			return (byte[]) ENTRY_BYTES.get(entry);
 		}
@@ -253,8 +495,61 @@ public class ZipFSReflect {
 			return (int) ENTRY_TYPE.get(entry);
 		}
 		
+		public static int getFlag(BasicFileAttributes entry) {
+			return (int) ENTRY_FLAG.get(entry);
+		}
+		
+		public static void setFlag(BasicFileAttributes entry, int flag) {
+			ENTRY_FLAG.set(entry, flag);
+		}
+		
+		/**
+		 * @return the last modified time of the entry in milliseconds since the epoch
+		 */
+		public static long getMTime(BasicFileAttributes entry) {
+			return (long) ENTRY_MTIME.get(entry);
+		}
+		
+		/**
+		 * copies the modified, accessed and creation time of {@code from} to {@code to}
+		 */
+		public static void copyTimes(BasicFileAttributes from, BasicFileAttributes to) {
+			ENTRY_MTIME.set(to, (long) ENTRY_MTIME.get(from));
+			ENTRY_ATIME.set(to, (long) ENTRY_ATIME.get(from));
+			ENTRY_CTIME.set(to, (long) ENTRY_CTIME.get(from));
+		}
+		
+		/**
+		 * sets the modified, accessed and creation time of the entry, in milliseconds since the epoch
+		 */
+		public static void setTimes(BasicFileAttributes entry, long time) {
+			ENTRY_MTIME.set(entry, time);
+			ENTRY_ATIME.set(entry, time);
+			ENTRY_CTIME.set(entry, time);
+		}
+		
+		/**
+		 * @return the offset of the entry's local header, relative to {@link ZipFS#getLocPos(FileSystem)}
+		 */
+		public static long getLocOff(BasicFileAttributes entry) {
+			return (long) ENTRY_LOCOFF.get(entry);
+		}
+		
+		/**
+		 * @return the temporary file the entry's contents are stored in, if any
+		 */
+		public static Path getFile(BasicFileAttributes entry) {
+			return (Path) ENTRY_FILE.get(entry);
+		}
+		
+		/**
+		 * @return an input stream of the raw (still compressed) contents of the entry in the zip file
+		 */
 		public static InputStream getCENInputStream(FileSystem zipfs, BasicFileAttributes entry) {
 			try {
+				if(!ENTRY_IN_STREAM_TAKES_CH) {
+					return (InputStream) ENTRY_IN_STREAM_CTOR.invoke(zipfs, entry);
+				}
 				SeekableByteChannel ch = (SeekableByteChannel) ZIPFS_CH.get(zipfs);
 				return (InputStream) ENTRY_IN_STREAM_CTOR.invoke(zipfs, entry, ch);
 			} catch(Throwable e) {
@@ -265,12 +560,134 @@ public class ZipFSReflect {
 		public static void setType(BasicFileAttributes entry, int type) {
 			ENTRY_TYPE.set(entry, type);
 		}
+		
+		/**
+		 * @return the entry a channel returned by ZipFileSystem#newByteChannel for writing updates when it's closed, or null if it isn't one
+		 */
+		public static BasicFileAttributes ofOutputChannel(SeekableByteChannel channel) {
+			if(ENTRY_OUT_CH_ENTRY == null || !ENTRY_OUT_CH_ENTRY.coordinateTypes().get(0).isInstance(channel)) {
+				return null;
+			}
+			return (BasicFileAttributes) ENTRY_OUT_CH_ENTRY.get(channel);
+		}
+		
+		public static void setLocOff(BasicFileAttributes entry, long locoff) {
+			ENTRY_LOCOFF.set(entry, locoff);
+		}
+		
+		public static void setFile(BasicFileAttributes entry, Path file) {
+			ENTRY_FILE.set(entry, file);
+		}
+	}
+	
+	/**
+	 * the zip record writers ZipFileSystem#sync uses, offsets are relative to {@link ZipFS#getLocPos(FileSystem)}
+	 */
+	public static final class Records {
+		public static final int CENHDR = 46;
+		
+		public static boolean isSupported() {
+			return WRITER != null;
+		}
+		
+		/**
+		 * @return the central directory of the zip file as it was when the file system was opened, followed by its END record
+		 */
+		public static byte[] getCEN(FileSystem zipfs) {
+			return (byte[]) WRITER.cen().get(zipfs);
+		}
+		
+		/**
+		 * @return the length of the central directory record at {@code pos} in {@link #getCEN(FileSystem)}
+		 */
+		public static int getCENLength(byte[] cen, int pos) {
+			return CENHDR + u16(cen, pos + 28) + u16(cen, pos + 30) + u16(cen, pos + 32);
+		}
+		
+		/**
+		 * @return the number of bytes written
+		 */
+		public static int writeLOC(BasicFileAttributes entry, OutputStream os) {
+			try {
+				return (int) WRITER.writeLOC().invoke(entry, os);
+			} catch(Throwable e) {
+				throw rethrow(e);
+			}
+		}
+		
+		/**
+		 * writes the entry's contents, compressing them if they aren't already, and its data descriptor
+		 * @return the number of bytes written
+		 */
+		public static long writeEntry(FileSystem zipfs, BasicFileAttributes entry, OutputStream os) {
+			try {
+				return (long) WRITER.writeEntry().invoke(zipfs, entry, os);
+			} catch(Throwable e) {
+				throw rethrow(e);
+			}
+		}
+		
+		/**
+		 * copies the local header and raw contents of a COPY entry to {@code os}, and points the entry at {@code written}
+		 * @return the number of bytes written
+		 */
+		public static long copyLOCEntry(FileSystem zipfs, BasicFileAttributes entry, OutputStream os, long written, byte[] buf) {
+			try {
+				return (long) WRITER.copyLOCEntry().invoke(zipfs, entry, true, os, written, buf);
+			} catch(Throwable e) {
+				throw rethrow(e);
+			}
+		}
+		
+		/**
+		 * @return the number of bytes written
+		 */
+		public static int writeCEN(BasicFileAttributes entry, OutputStream os) {
+			try {
+				return (int) WRITER.writeCEN().invoke(entry, os);
+			} catch(Throwable e) {
+				throw rethrow(e);
+			}
+		}
+		
+		/**
+		 * updates the file system's END record and writes it to {@code os}
+		 * @param offset where in the zip file the END record is written
+		 */
+		public static void writeEND(FileSystem zipfs, OutputStream os, long offset, long cenoff, long cenlen, int centot) {
+			Object end = WRITER.end().get(zipfs);
+			WRITER.cenoff().set(end, cenoff);
+			WRITER.cenlen().set(end, cenlen);
+			WRITER.centot().set(end, centot);
+			try {
+				WRITER.writeEND().invoke(end, os, offset, (boolean) WRITER.forceEnd64().get(zipfs));
+			} catch(Throwable e) {
+				throw rethrow(e);
+			}
+		}
+		
+		private static int u16(byte[] bytes, int off) {
+			return (bytes[off] & 0xff) | (bytes[off + 1] & 0xff) << 8;
+		}
+	}
+	
+	public static final class ByteArrayChannel {
+		/**
+		 * @return the array a channel ZipFileSystem#newByteChannel returned for reading holds the entry's contents in, the first
+		 * {@code channel.size()} bytes are the contents, or null if it isn't one
+		 */
+		public static byte[] getBuffer(SeekableByteChannel channel) {
+			if(BYTE_ARRAY_CH_BUF == null || !BYTE_ARRAY_CH_BUF.coordinateTypes().get(0).isInstance(channel)) {
+				return null;
+			}
+			return (byte[]) BYTE_ARRAY_CH_BUF.get(channel);
+		}
 	}
 	
 	public static final class ZipPath {
 		public static byte[] getResolvedPath(Path path) {
 			try {
-				return (byte[]) ZIPPATH_RESOLVED_PATH.invoke(path);
+				return (byte[]) ZIPPATH_RESOLVED_PATH.invokeExact(path);
 			} catch(Throwable e) {
 				throw rethrow(e);
 			}
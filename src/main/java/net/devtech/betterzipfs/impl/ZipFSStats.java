@@ -0,0 +1,49 @@
+package net.devtech.betterzipfs.impl;
+
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Counters for what a {@link BetterZipFS} has been doing, these are striped so recording is cheap even when contended.
+ */
+public final class ZipFSStats {
+	final LongAdder rawCopies = new LongAdder(), fallbackCopies = new LongAdder();
+	/**
+	 * uncompressed size of deflated entries that have been read out of, or written to the zip
+	 */
+	final LongAdder bytesInflated = new LongAdder(), bytesDeflated = new LongAdder();
+	final LatencyHistogram flushes = new LatencyHistogram(), syncs = new LatencyHistogram();
+	
+	/**
+	 * @param rawCopies copies that shared the compressed bytes of the source entry
+	 * @param fallbackCopies copies that had to decompress and recompress the entry
+	 * @param cachedReads reads served from the content cache
+	 * @param uncachedReads reads that had to go to the zip
+	 * @param flushes writing pending channels to the zip file system
+	 * @param syncs writing the zip file system to disk
+	 * @param cachedPaths the number of paths in the path cache
+	 * @param cachedContentBytes the size of the content cache
+	 */
+	public record Snapshot(long rawCopies,
+	                       long fallbackCopies,
+	                       long cachedReads,
+	                       long uncachedReads,
+	                       long bytesInflated,
+	                       long bytesDeflated,
+	                       LatencyHistogram.Snapshot flushes,
+	                       LatencyHistogram.Snapshot syncs,
+	                       int cachedPaths,
+	                       long cachedContentBytes) {}
+	
+	public Snapshot snapshot(BetterZipFS fs) {
+		return new Snapshot(this.rawCopies.sum(),
+				this.fallbackCopies.sum(),
+				fs.contentCache.hits(),
+				fs.contentCache.misses(),
+				this.bytesInflated.sum(),
+				this.bytesDeflated.sum(),
+				this.flushes.snapshot(),
+				this.syncs.snapshot(),
+				fs.pathCache.size(),
+				fs.contentCache.size());
+	}
+}
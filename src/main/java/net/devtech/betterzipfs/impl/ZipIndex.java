@@ -0,0 +1,381 @@
+package net.devtech.betterzipfs.impl;
+
+import java.io.Closeable;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.zip.CRC32;
+import java.util.zip.Inflater;
+import java.util.zip.InflaterInputStream;
+import java.util.zip.ZipException;
+
+/**
+ * A read only view of a zip that looks its entries up in a memory mapped sidecar file instead of parsing the central directory, so opening
+ * it costs the same no matter how many entries the zip has, and each lookup only touches the pages it needs.
+ * <p>
+ * The sidecar is built the first time the zip is opened, and rebuilt whenever the zip's size, modification time or END records (which
+ * hold the offset, length and entry count of the central directory) don't match the ones it was built from. The central directory itself
+ * isn't part of that key, since checking it would cost as much as parsing it, so a zip rewritten in place with the same size, modification
+ * time and END records can go unnoticed. Reads check the contents of each entry against its crc, so they fail instead of returning the
+ * wrong bytes. If the sidecar can't be written, like when the zip's directory is read only, the index is kept in memory instead.
+ */
+public final class ZipIndex implements Closeable {
+	static final int MAGIC = 0x495a4642, VERSION = 1, HEADER = 64;
+	static final int RECORD = 36; // hash, data offset, compressed size, size, crc, method, name length, followed by the name
+	
+	private final Path zip;
+	private final FileChannel channel;
+	private final ByteBuffer index;
+	private final int total, slots;
+	private final long records;
+	
+	private ZipIndex(Path zip, FileChannel channel, ByteBuffer index) {
+		this.zip = zip;
+		this.channel = channel;
+		this.index = index;
+		this.total = index.getInt(32);
+		this.slots = index.getInt(36);
+		this.records = HEADER + (long) this.slots * 4;
+	}
+	
+	/**
+	 * the file the index of a zip is kept in by default, next to the zip
+	 */
+	public static Path sidecar(Path zip) {
+		return zip.resolveSibling(zip.getFileName() + ".bzfsidx");
+	}
+	
+	public static ZipIndex open(Path zip) throws IOException {
+		return open(zip, sidecar(zip));
+	}
+	
+	/**
+	 * opens the zip through the given sidecar, building it first if it's missing or out of date
+	 */
+	public static ZipIndex open(Path zip, Path sidecar) throws IOException {
+		FileChannel channel = FileChannel.open(zip, StandardOpenOption.READ);
+		try {
+			BasicFileAttributes attributes = Files.readAttributes(zip, BasicFileAttributes.class);
+			ByteBuffer index = load(sidecar, channel, attributes);
+			if(index == null) {
+				index = build(zip, sidecar, attributes);
+				BasicFileAttributes now = Files.readAttributes(zip, BasicFileAttributes.class);
+				if(now.size() != attributes.size() || !now.lastModifiedTime().equals(attributes.lastModifiedTime())) {
+					throw new IOException(zip + " changed while its index was being built");
+				}
+			}
+			return new ZipIndex(zip, channel, index);
+		} catch(IOException | RuntimeException e) {
+			channel.close();
+			throw e;
+		}
+	}
+	
+	/**
+	 * @return null if the sidecar doesn't exist or wasn't built from the zip as it is now
+	 */
+	private static ByteBuffer load(Path sidecar, FileChannel zip, BasicFileAttributes attributes) throws IOException {
+		if(!Files.isRegularFile(sidecar)) {
+			return null;
+		}
+		MappedByteBuffer index;
+		try(FileChannel channel = FileChannel.open(sidecar, StandardOpenOption.READ)) {
+			if(channel.size() < HEADER) {
+				return null;
+			}
+			index = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size()); // the mapping outlives the channel
+		}
+		index.order(ByteOrder.LITTLE_ENDIAN);
+		if(index.getInt(0) != MAGIC || index.getInt(4) != VERSION || index.getLong(8) != attributes.size()
+		   || index.getLong(16) != attributes.lastModifiedTime().toMillis()) {
+			return null;
+		}
+		long endpos = index.getLong(24);
+		if(endpos < 0 || endpos > attributes.size() || attributes.size() - endpos > RawZipFile.ENDHDR + RawZipFile.ZIP64_LOCHDR + RawZipFile.ZIP64_ENDHDR + 0xFFFF) {
+			return null;
+		}
+		CRC32 crc = new CRC32();
+		crc.update(RawZipFile.read(zip, endpos, (int) (attributes.size() - endpos)));
+		return crc.getValue() == index.getLong(40) ? index : null;
+	}
+	
+	/**
+	 * @return the index, which is also written to the sidecar if possible
+	 */
+	private static ByteBuffer build(Path zip, Path sidecar, BasicFileAttributes attributes) throws IOException {
+		try(RawZipFile file = RawZipFile.open(zip)) {
+			int slots = Integer.highestOneBit(Math.max(file.total, 1) * 2 - 1) << 1;
+			long size = HEADER + (long) slots * 4 + (long) file.total * RECORD + file.cen.length; // names are no longer than their cen records
+			if(size > Integer.MAX_VALUE - 8) {
+				throw new IOException(zip + " has too many entries to index");
+			}
+			ByteBuffer index = ByteBuffer.allocate((int) size).order(ByteOrder.LITTLE_ENDIAN);
+			int records = HEADER + slots * 4, pos = records, total = 0;
+			for(int cen = file.first(); cen != -1; cen = file.next(cen)) {
+				RawZipFile.Record record = file.record(cen);
+				byte[] name = record.name();
+				int hash = hash(name, 0, name.length), slot = hash & (slots - 1);
+				while(index.getInt(HEADER + slot * 4) != 0) {
+					slot = (slot + 1) & (slots - 1);
+				}
+				index.putInt(HEADER + slot * 4, pos - records + 1);
+				index.putInt(pos, hash);
+				index.putLong(pos + 4, file.dataOffset(record));
+				index.putLong(pos + 12, record.csize());
+				index.putLong(pos + 20, record.size());
+				index.putInt(pos + 28, (int) record.crc());
+				index.putShort(pos + 32, (short) record.method());
+				index.putShort(pos + 34, (short) name.length);
+				index.put(pos + RECORD, name);
+				pos += RECORD + name.length;
+				total++;
+			}
+			
+			CRC32 crc = new CRC32();
+			crc.update(RawZipFile.read(file.channel, file.endpos, (int) (attributes.size() - file.endpos)));
+			index.putInt(0, MAGIC);
+			index.putInt(4, VERSION);
+			index.putLong(8, attributes.size());
+			index.putLong(16, attributes.lastModifiedTime().toMillis());
+			index.putLong(24, file.endpos);
+			index.putInt(32, total);
+			index.putInt(36, slots);
+			index.putLong(40, crc.getValue());
+			
+			index.limit(pos);
+			try {
+				write(index.duplicate(), sidecar);
+			} catch(IOException e) {
+				// the sidecar is only a cache, the index is used from memory instead
+			}
+			return index;
+		}
+	}
+	
+	private static void write(ByteBuffer index, Path sidecar) throws IOException {
+		Path temp = Files.createTempFile(sidecar.toAbsolutePath().getParent(), "index", ".tmp");
+		try {
+			try(FileChannel channel = FileChannel.open(temp, StandardOpenOption.WRITE)) {
+				while(index.hasRemaining()) {
+					channel.write(index);
+				}
+			}
+			Files.move(temp, sidecar, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+		} finally {
+			Files.deleteIfExists(temp);
+		}
+	}
+	
+	/**
+	 * @param name the name of the entry, '/' separated, directories may leave out the trailing '/'
+	 * @return null if the zip doesn't have the entry
+	 */
+	public Entry find(String name) {
+		if(name.startsWith("/")) {
+			name = name.substring(1);
+		}
+		byte[] bytes = name.getBytes(StandardCharsets.UTF_8);
+		int pos = this.find(bytes, bytes.length);
+		if(pos == -1 && !name.endsWith("/")) {
+			byte[] directory = new byte[bytes.length + 1];
+			System.arraycopy(bytes, 0, directory, 0, bytes.length);
+			directory[bytes.length] = '/';
+			pos = this.find(directory, directory.length);
+		}
+		if(pos == -1) {
+			return null;
+		}
+		ByteBuffer index = this.index;
+		byte[] stored = new byte[index.getShort(pos + 34) & 0xffff];
+		index.get(pos + RECORD, stored);
+		return new Entry(new String(stored, StandardCharsets.UTF_8),
+				index.getLong(pos + 20),
+				index.getLong(pos + 12),
+				index.getInt(pos + 28) & 0xffffffffL,
+				index.getShort(pos + 32),
+				index.getLong(pos + 4));
+	}
+	
+	private int find(byte[] name, int len) {
+		ByteBuffer index = this.index;
+		int hash = hash(name, 0, len), mask = this.slots - 1;
+		for(int slot = hash & mask; ; slot = (slot + 1) & mask) {
+			int off = index.getInt(HEADER + slot * 4);
+			if(off == 0) {
+				return -1;
+			}
+			int pos = (int) (this.records + off - 1);
+			if(index.getInt(pos) == hash && (index.getShort(pos + 34) & 0xffff) == len && this.nameEquals(pos + RECORD, name, len)) {
+				return pos;
+			}
+		}
+	}
+	
+	private boolean nameEquals(int pos, byte[] name, int len) {
+		for(int i = 0; i < len; i++) {
+			if(this.index.get(pos + i) != name[i]) {
+				return false;
+			}
+		}
+		return true;
+	}
+	
+	public boolean exists(String name) {
+		return this.find(name) != null;
+	}
+	
+	/**
+	 * @return the number of entries in the zip
+	 */
+	public int size() {
+		return this.total;
+	}
+	
+	public byte[] readAllBytes(String name) throws IOException {
+		Entry entry = this.entry(name);
+		if(entry.size() > Integer.MAX_VALUE - 8 || entry.compressedSize() > Integer.MAX_VALUE - 8) {
+			throw new IOException(name + " is too large to read into memory");
+		}
+		byte[] compressed = RawZipFile.read(this.channel, entry.dataOffset(), (int) entry.compressedSize());
+		RawZipFile.Record record = RawZipFile.Record.of(entry.name().getBytes(StandardCharsets.UTF_8), entry.method(), 0, entry.crc(),
+				entry.compressedSize(), entry.size());
+		byte[] data = RawZipFile.inflate(record, compressed, 0, compressed.length);
+		CRC32 crc = new CRC32();
+		crc.update(data);
+		if(crc.getValue() != entry.crc()) {
+			throw new ZipException("invalid crc for " + entry.name() + ", the zip may have changed since it was indexed");
+		}
+		return data;
+	}
+	
+	/**
+	 * reads the entry straight from the zip file without buffering all of it, any number of streams can be open at once
+	 */
+	public InputStream newInputStream(String name) throws IOException {
+		Entry entry = this.entry(name);
+		InputStream raw = new InputStream() {
+			long pos = entry.dataOffset(), remaining = entry.compressedSize();
+			
+			@Override
+			public int read() throws IOException {
+				byte[] b = new byte[1];
+				return this.read(b, 0, 1) == -1 ? -1 : b[0] & 0xff;
+			}
+			
+			@Override
+			public int read(byte[] b, int off, int len) throws IOException {
+				if(this.remaining <= 0) {
+					return -1;
+				}
+				int read = ZipIndex.this.channel.read(ByteBuffer.wrap(b, off, (int) Math.min(len, this.remaining)), this.pos);
+				if(read > 0) {
+					this.pos += read;
+					this.remaining -= read;
+				}
+				return read;
+			}
+		};
+		if(entry.method() == ZipFSReflect.Entry.METHOD_STORED) {
+			return verified(raw, entry);
+		} else if(entry.method() != ZipFSReflect.Entry.METHOD_DEFLATED) {
+			throw new IOException("unsupported compression method " + entry.method() + " for " + name);
+		}
+		Inflater inflater = new Inflater(true);
+		return verified(new InflaterInputStream(raw, inflater, 8192) {
+			@Override
+			public void close() throws IOException {
+				super.close();
+				inflater.end();
+			}
+		}, entry);
+	}
+	
+	/**
+	 * checks the size and crc of the entry once the stream reaches its end
+	 */
+	private static InputStream verified(InputStream stream, Entry entry) {
+		return new FilterInputStream(stream) {
+			final CRC32 crc = new CRC32();
+			long read;
+			
+			@Override
+			public int read() throws IOException {
+				byte[] b = new byte[1];
+				return this.read(b, 0, 1) == -1 ? -1 : b[0] & 0xff;
+			}
+			
+			@Override
+			public int read(byte[] b, int off, int len) throws IOException {
+				int read = this.in.read(b, off, len);
+				if(read > 0) {
+					this.crc.update(b, off, read);
+					this.read += read;
+				} else if(read == -1 && (this.read != entry.size() || this.crc.getValue() != entry.crc())) {
+					throw new ZipException("invalid crc or size for " + entry.name() + ", the zip may have changed since it was indexed");
+				}
+				return read;
+			}
+			
+			@Override
+			public long skip(long n) throws IOException {
+				byte[] buffer = new byte[(int) Math.min(n, 8192)];
+				long skipped = 0;
+				while(skipped < n) {
+					int read = this.read(buffer, 0, (int) Math.min(n - skipped, buffer.length));
+					if(read == -1) {
+						break;
+					}
+					skipped += read;
+				}
+				return skipped;
+			}
+			
+			@Override
+			public boolean markSupported() {
+				return false;
+			}
+		};
+	}
+	
+	private Entry entry(String name) throws NoSuchFileException {
+		Entry entry = this.find(name);
+		if(entry == null) {
+			throw new NoSuchFileException(name, null, "not in " + this.zip);
+		}
+		return entry;
+	}
+	
+	@Override
+	public void close() throws IOException {
+		this.channel.close();
+	}
+	
+	static int hash(byte[] name, int off, int len) {
+		int hash = 0;
+		for(int i = off; i < off + len; i++) {
+			hash = 31 * hash + name[i];
+		}
+		return hash ^ (hash >>> 16);
+	}
+	
+	/**
+	 * @param name the name of the entry, directories end with '/'
+	 * @param dataOffset the position of the entry's compressed contents in the zip file
+	 */
+	public record Entry(String name, long size, long compressedSize, long crc, int method, long dataOffset) {
+		public boolean isDirectory() {
+			return this.name.endsWith("/");
+		}
+	}
+}
@@ -0,0 +1,128 @@
+package net.devtech.betterzipfs.impl;
+
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.CRC32;
+
+/**
+ * Merges zips into one in a single pass over their contents, entries are copied from each zip to the output without being decompressed, and
+ * only the central directories of the zips are held in memory. Entries that are merged with a {@link ConflictStrategy} are the only ones
+ * read into memory.
+ */
+public final class ZipMerger {
+	private ZipMerger() {}
+	
+	/**
+	 * @param output replaced once the merged zip has been written, may be one of the inputs
+	 * @return the number of entries in the merged zip
+	 */
+	public static int merge(List<Path> inputs, Path output, ConflictStrategy strategy) throws IOException {
+		Path temp = Files.createTempFile(output.toAbsolutePath().getParent(), "merge", ".zip");
+		List<RawZipFile> zips = new ArrayList<>(inputs.size());
+		try {
+			// the zip (upper 32 bits) and position in its central directory (lower 32 bits) of each entry with the name, in order
+			Map<String, long[]> entries = new HashMap<>();
+			for(Path input : inputs) {
+				RawZipFile zip = RawZipFile.open(input);
+				zips.add(zip);
+				long index = (long) (zips.size() - 1) << 32;
+				for(int pos = zip.first(); pos != -1; pos = zip.next(pos)) {
+					long entry = index | pos;
+					entries.merge(zip.record(pos).nameString(), new long[] {entry}, (a, b) -> {
+						if(a[a.length - 1] >>> 32 == entry >>> 32) {
+							return a; // a duplicate in the same zip, the first one is used
+						}
+						long[] copy = Arrays.copyOf(a, a.length + 1);
+						copy[a.length] = entry;
+						return copy;
+					});
+				}
+			}
+			
+			int written = 0;
+			try(RawZipWriter writer = new RawZipWriter(FileChannel.open(temp, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING))) {
+				for(int i = 0; i < zips.size(); i++) {
+					RawZipFile zip = zips.get(i);
+					for(int pos = zip.first(); pos != -1; pos = zip.next(pos)) {
+						RawZipFile.Record record = zip.record(pos);
+						String name = record.nameString();
+						long[] candidates = entries.get(name);
+						if(candidates == null) {
+							continue; // already written
+						}
+						
+						int chosen = candidates.length == 1 || record.isDirectory() ? 0 : strategy.choose(name, candidates.length);
+						long entry = (long) i << 32 | pos;
+						if(chosen == ConflictStrategy.MERGE) {
+							if(candidates[0] != entry) {
+								continue;
+							}
+							List<byte[]> contents = new ArrayList<>(candidates.length);
+							for(long candidate : candidates) {
+								RawZipFile from = zips.get((int) (candidate >>> 32));
+								contents.add(from.read(from.record((int) candidate)));
+							}
+							byte[] merged = strategy.merge(name, contents);
+							writeMerged(writer, record, merged);
+						} else if(candidates[chosen] == entry) {
+							writer.copy(zip, record);
+						} else {
+							continue;
+						}
+						entries.remove(name);
+						written++;
+					}
+				}
+			}
+			closeAll(zips); // the output may be one of them, which can't be replaced while it's open on windows
+			Files.move(temp, output, StandardCopyOption.REPLACE_EXISTING);
+			return written;
+		} finally {
+			try {
+				closeAll(zips);
+			} finally {
+				Files.deleteIfExists(temp);
+			}
+		}
+	}
+	
+	private static void closeAll(List<RawZipFile> zips) throws IOException {
+		IOException failure = null;
+		for(RawZipFile zip : zips) {
+			try {
+				zip.close();
+			} catch(IOException e) {
+				if(failure == null) {
+					failure = e;
+				} else {
+					failure.addSuppressed(e);
+				}
+			}
+		}
+		zips.clear();
+		if(failure != null) {
+			throw failure;
+		}
+	}
+	
+	private static void writeMerged(RawZipWriter writer, RawZipFile.Record record, byte[] merged) throws IOException {
+		CRC32 crc = new CRC32();
+		crc.update(merged);
+		byte[] compressed = Deflation.deflate(merged, merged.length, CompressionPolicy.DEFAULT);
+		int method = ZipFSReflect.Entry.METHOD_DEFLATED;
+		if(compressed.length >= merged.length) {
+			compressed = merged;
+			method = ZipFSReflect.Entry.METHOD_STORED;
+		}
+		writer.write(record.withContents(method, crc.getValue(), compressed.length, merged.length), compressed, 0, compressed.length);
+	}
+}
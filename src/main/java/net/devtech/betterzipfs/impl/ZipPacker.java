@@ -0,0 +1,201 @@
+package net.devtech.betterzipfs.impl;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.FileVisitOption;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.EnumSet;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.zip.CRC32;
+
+/**
+ * Zips a directory, files are read and compressed in parallel a run of them at a time, and written by one writer in the order of their
+ * names, so packing the same files always gives the same zip.
+ */
+public final class ZipPacker {
+	/**
+	 * the most files and uncompressed bytes compressed by one task
+	 */
+	static final int BATCH_FILES = 256, BATCH_BYTES = 4 << 20;
+	/**
+	 * the most uncompressed bytes read ahead of the writer
+	 */
+	static final long MAX_PENDING_BYTES = 64 << 20;
+	/**
+	 * how much of a file too large for a batch the compression policy is given
+	 */
+	static final int SAMPLE_BYTES = 64 << 10;
+	
+	private ZipPacker() {}
+	
+	/**
+	 * @param zip replaced once the directory has been packed
+	 * @return the number of entries in the zip
+	 */
+	public static int pack(Path sourceDir, Path zip, PackOptions options) throws IOException {
+		List<Source> sources = walk(sourceDir);
+		Path temp = Files.createTempFile(zip.toAbsolutePath().getParent(), "pack", ".zip");
+		try {
+			try(RawZipWriter writer = new RawZipWriter(FileChannel.open(temp, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING))) {
+				Queue<Batch> pending = new ArrayDeque<>();
+				long pendingBytes = 0;
+				int next = 0;
+				while(next < sources.size() || !pending.isEmpty()) {
+					while(next < sources.size() && (pending.isEmpty() || pendingBytes < MAX_PENDING_BYTES)) {
+						if(sources.get(next).size > BATCH_BYTES) { // compressed by the writer as it's read, instead of being held in memory
+							pending.add(new Batch(0, null, sources.get(next++)));
+							continue;
+						}
+						int to = next;
+						long bytes = 0;
+						do {
+							bytes += sources.get(to++).size;
+						} while(to < sources.size() && to - next < BATCH_FILES && bytes < BATCH_BYTES && sources.get(to).size <= BATCH_BYTES);
+						List<Source> batch = sources.subList(next, to);
+						pending.add(new Batch(bytes, CompletableFuture.supplyAsync(() -> compress(batch, options), options.executor()), null));
+						pendingBytes += bytes;
+						next = to;
+					}
+					
+					Batch batch = pending.remove();
+					if(batch.large != null) {
+						compress(writer, batch.large, options);
+						continue;
+					}
+					Compressed[] entries;
+					try {
+						entries = batch.entries.join();
+					} catch(CompletionException e) {
+						throw ZipFSReflect.rethrow(e.getCause());
+					}
+					pendingBytes -= batch.bytes;
+					for(Compressed entry : entries) {
+						writer.write(entry.record, entry.contents, 0, entry.contents.length);
+					}
+				}
+			}
+			Files.move(temp, zip, StandardCopyOption.REPLACE_EXISTING);
+			return sources.size();
+		} finally {
+			Files.deleteIfExists(temp);
+		}
+	}
+	
+	/**
+	 * @return every file and directory in the directory, sorted by their names in the zip
+	 */
+	private static List<Source> walk(Path sourceDir) throws IOException {
+		List<Source> sources = new ArrayList<>();
+		Files.walkFileTree(sourceDir, EnumSet.of(FileVisitOption.FOLLOW_LINKS), Integer.MAX_VALUE, new SimpleFileVisitor<>() {
+			@Override
+			public FileVisitResult preVisitDirectory(Path dir, BasicFileAttributes attrs) {
+				if(!dir.equals(sourceDir)) {
+					sources.add(new Source(name(sourceDir, dir) + "/", dir, true, 0, attrs.lastModifiedTime().toMillis()));
+				}
+				return FileVisitResult.CONTINUE;
+			}
+			
+			@Override
+			public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) {
+				if(attrs.isRegularFile()) {
+					sources.add(new Source(name(sourceDir, file), file, false, attrs.size(), attrs.lastModifiedTime().toMillis()));
+				}
+				return FileVisitResult.CONTINUE;
+			}
+		});
+		sources.sort(Comparator.comparing(Source::name));
+		return sources;
+	}
+	
+	private static String name(Path sourceDir, Path path) {
+		Path relative = sourceDir.relativize(path);
+		String separator = relative.getFileSystem().getSeparator();
+		return separator.equals("/") ? relative.toString() : relative.toString().replace(separator, "/");
+	}
+	
+	private static Compressed[] compress(List<Source> batch, PackOptions options) {
+		try {
+			Compressed[] compressed = new Compressed[batch.size()];
+			for(int i = 0; i < compressed.length; i++) {
+				compressed[i] = compress(batch.get(i), options);
+			}
+			return compressed;
+		} catch(IOException e) {
+			throw ZipFSReflect.rethrow(e);
+		}
+	}
+	
+	private static Compressed compress(Source source, PackOptions options) throws IOException {
+		byte[] name = source.name.getBytes(StandardCharsets.UTF_8);
+		long time = time(source, options);
+		if(source.isDirectory) {
+			return new Compressed(RawZipFile.Record.of(name, ZipFSReflect.Entry.METHOD_STORED, time, 0, 0, 0), RawZipFile.Record.EMPTY);
+		}
+		
+		byte[] data = Files.readAllBytes(source.file);
+		CRC32 crc = new CRC32();
+		crc.update(data);
+		int level = options.compressionPolicy().level(source.file.getFileSystem().getPath(source.name), data);
+		int method = ZipFSReflect.Entry.METHOD_STORED;
+		byte[] compressed = data;
+		if(level != CompressionPolicy.STORED) {
+			byte[] deflated = Deflation.deflate(data, data.length, level);
+			if(deflated.length < data.length) {
+				method = ZipFSReflect.Entry.METHOD_DEFLATED;
+				compressed = deflated;
+			}
+		}
+		return new Compressed(RawZipFile.Record.of(name, method, time, crc.getValue(), compressed.length, data.length), compressed);
+	}
+	
+	/**
+	 * streams a file that's too large for a batch through the writer, the compression policy only sees the start of it
+	 */
+	private static void compress(RawZipWriter writer, Source source, PackOptions options) throws IOException {
+		try(FileChannel channel = FileChannel.open(source.file, StandardOpenOption.READ)) {
+			ByteBuffer sample = ByteBuffer.allocate((int) Math.min(source.size, SAMPLE_BYTES));
+			while(sample.hasRemaining()) {
+				if(channel.read(sample, sample.position()) < 0) {
+					break;
+				}
+			}
+			byte[] data = Arrays.copyOf(sample.array(), sample.position());
+			int level = options.compressionPolicy().level(source.file.getFileSystem().getPath(source.name), data);
+			RawZipFile.Record record = RawZipFile.Record.of(source.name.getBytes(StandardCharsets.UTF_8), ZipFSReflect.Entry.METHOD_DEFLATED,
+					time(source, options), 0, 0, 0);
+			writer.deflate(record, channel, level);
+		}
+	}
+	
+	private static long time(Source source, PackOptions options) {
+		return EntryMetadata.javaToDosTime(options.lastModifiedTime() == -1 ? source.lastModifiedTime : options.lastModifiedTime());
+	}
+	
+	/**
+	 * @param name the name of the entry, directories end with '/'
+	 */
+	record Source(String name, Path file, boolean isDirectory, long size, long lastModifiedTime) {}
+	
+	record Compressed(RawZipFile.Record record, byte[] contents) {}
+	
+	/**
+	 * @param bytes the uncompressed size of the files in the batch
+	 * @param large a file too large for a batch, that the writer compresses instead, or null
+	 */
+	record Batch(long bytes, CompletableFuture<Compressed[]> entries, Source large) {}
+}
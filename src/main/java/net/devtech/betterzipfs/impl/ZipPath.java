@@ -10,13 +10,16 @@ import java.nio.file.Path;
 import java.nio.file.WatchEvent;
 import java.nio.file.WatchKey;
 import java.nio.file.WatchService;
+import java.nio.file.attribute.BasicFileAttributes;
 import java.util.concurrent.Callable;
 
 class ZipPath implements Path {
-	private static final VarHandle ZIP_CONTENTS_REF_COUNTER;
+	private static final VarHandle ZIP_CONTENTS_REF_COUNTER, ZIP_CONTENTS_CHANNEL;
 	static {
 		try {
-			ZIP_CONTENTS_REF_COUNTER = MethodHandles.privateLookupIn(ZipContents.class, MethodHandles.lookup()).findVarHandle(ZipContents.class, "ref", int.class);
+			MethodHandles.Lookup lookup = MethodHandles.privateLookupIn(ZipContents.class, MethodHandles.lookup());
+			ZIP_CONTENTS_REF_COUNTER = lookup.findVarHandle(ZipContents.class, "ref", int.class);
+			ZIP_CONTENTS_CHANNEL = lookup.findVarHandle(ZipContents.class, "channel", SeekableByteChannel.class);
 		} catch(NoSuchFieldException | IllegalAccessException e) {
 			throw ZipFSReflect.rethrow(e);
 		}
@@ -27,6 +30,10 @@ class ZipPath implements Path {
 		volatile int ref;
 		volatile SeekableByteChannel channel;
 		volatile boolean isWrite;
+		/**
+		 * set on a cache hit, cleared when eviction passes over it
+		 */
+		volatile boolean referenced;
 	}
 	
 	volatile ZipContents contents; // null if file is deleted or this is a mirror instance
@@ -36,6 +43,8 @@ class ZipPath implements Path {
 	Path parent;
 	
 	volatile String str;
+	private volatile byte[] resolved;
+	private int hash;
 	
 	public ZipPath(BetterZipFS fs, Path delegate) {
 		this.fs = fs;
@@ -59,7 +68,7 @@ class ZipPath implements Path {
 					return this.mirror;
 				}
 				
-				ZipPath paths = this.fs.wrapCached(this.delegate, this);
+				ZipPath paths = this.fs.wrapCached(this);
 				if(paths == this) { // not mirror
 					this.mirror = NOT_MIRROR;
 					return this;
@@ -72,55 +81,125 @@ class ZipPath implements Path {
 		}
 	}
 	
+	/**
+	 * @return the resolved path of the delegate, cached so lookups in {@link PathTable} don't have to recompute it
+	 */
+	byte[] resolvedPath() {
+		byte[] resolved = this.resolved;
+		if(resolved == null) {
+			resolved = ZipFSReflect.ZipPath.getResolvedPath(this.delegate);
+			this.hash = PathTable.hash(resolved);
+			this.resolved = resolved; // volatile write publishes the hash
+		}
+		return resolved;
+	}
+	
+	int resolvedHash() {
+		this.resolvedPath();
+		return this.hash;
+	}
+	
 	public synchronized SeekableByteChannel getOrCreateContents(Callable<SeekableByteChannel> create, boolean isWrite) throws Exception {
-		SeekableByteChannel seek;
-		if((this.contents.isWrite || !isWrite) && this.contents.channel != null) {
-			seek = this.contents.channel;
+		ContentCache cache = this.fs.contentCache;
+		SeekableByteChannel seek = this.contents.channel; // may be evicted concurrently, so only read it once
+		if((this.contents.isWrite || !isWrite) && seek != null) {
+			if(!isWrite) {
+				cache.hit(this.contents);
+			}
 		} else {
 			ZipContents contents = this.contents;
 			if(isWrite) {
 				this.flushContents();
-				ZIP_CONTENTS_REF_COUNTER.getAndAdd(contents, -1);
+				this.release(contents);
 				contents = new ZipContents();
 				contents.ref = 1;
 				this.contents = contents;
+			} else {
+				cache.miss();
+			}
+			seek = create.call();
+			if(seek instanceof EntryStreamChannel) { // too large to cache, the caller gets its own stream
+				return seek;
 			}
 			contents.isWrite = isWrite;
-			contents.channel = seek = create.call();
+			if(!isWrite && !(seek instanceof SeekableByteChannelCopy)) { // a copy can be read positionally, so readers don't lock each other out
+				SeekableByteChannel channel = seek;
+				byte[] array = cache.direct ? null : ZipFSReflect.ByteArrayChannel.getBuffer(channel);
+				seek = array != null ? SeekableByteChannelCopy.wrap(array, (int) channel.size()) : new SeekableByteChannelCopy(channel, cache.direct);
+				channel.close();
+			}
+			contents.channel = seek;
+			if(!isWrite) {
+				cache.add(contents, seek, seek.size());
+			}
 		}
 		return new SeekableByteChannelWrapper(seek);
 	}
 	
 	public synchronized void deleteContents(ZipContents newContents) throws IOException {
 		this.flushContents();
-		ZIP_CONTENTS_REF_COUNTER.getAndAdd(this.contents, -1);
+		this.release(this.contents);
 		this.contents = newContents;
 	}
 	
 	public synchronized void flushContents() throws IOException {
 		ZipContents contents = this.contents;
 		SeekableByteChannel channel = contents.channel;
-		boolean shouldCopy = channel != null && !(channel instanceof SeekableByteChannelCopy);
+		boolean shouldCopy = channel != null && !(channel instanceof SeekableByteChannelCopy), wasWrite = contents.isWrite;
 		contents.isWrite = false;
+		ContentCache cache = this.fs.contentCache;
+		SeekableByteChannelCopy copy = null;
 		if(shouldCopy) {
-			contents.channel = new SeekableByteChannelCopy(channel);
-		} else {
+			copy = new SeekableByteChannelCopy(channel, cache.direct);
+			contents.channel = copy;
+			cache.add(contents, copy, copy.size());
+		} else if(!(channel instanceof SeekableByteChannelCopy mapped && mapped.isMapped())) { // a mapping stays valid when sync replaces the zip
 			contents.channel = null;
+			cache.remove(contents);
 		}
 		
 		if(shouldCopy) {
+			if(wasWrite && EntryWriter.write(this, channel, copy)) {
+				return; // the entry has been written, closing the channel would compress it again
+			}
 			channel.close();
+			if(wasWrite) { // zipfs deflates the entry when its channel is closed
+				BasicFileAttributes entry = ZipFSReflect.ZipFS.getEntry(this.fs.zipfs, this.resolvedPath());
+				if(entry != null && ZipFSReflect.Entry.getCompressionMethod(entry) == ZipFSReflect.Entry.METHOD_DEFLATED && Deflation.isCompressed(entry)) {
+					this.fs.stats.bytesDeflated.add(entry.size());
+				}
+				Deduplicator deduplicator = this.fs.deduplicator;
+				if(entry != null && deduplicator != null) {
+					deduplicator.add(entry);
+				}
+			}
 		}
 	}
 	
 	public synchronized void inheritContents(ZipPath path) throws IOException {
 		this.flushContents();
 		if((int)ZIP_CONTENTS_REF_COUNTER.getAndAdd(path.contents, 1) > 0) {
-			ZIP_CONTENTS_REF_COUNTER.getAndAdd(this.contents, -1);
+			this.release(this.contents);
 			this.contents = path.contents;
 		}
 	}
 	
+	/**
+	 * drops this path's reference to the contents, and removes them from the cache if nothing else references them
+	 */
+	void release(ZipContents contents) {
+		if((int) ZIP_CONTENTS_REF_COUNTER.getAndAdd(contents, -1) == 1) {
+			this.fs.contentCache.remove(contents);
+		}
+	}
+	
+	/**
+	 * drops the cached channel of the contents, unless it has been replaced since it was cached
+	 */
+	static void evict(ZipContents contents, SeekableByteChannel cached) {
+		ZIP_CONTENTS_CHANNEL.compareAndSet(contents, cached, null);
+	}
+	
 	@Override
 	public BetterZipFS getFileSystem() {
 		return this.fs;
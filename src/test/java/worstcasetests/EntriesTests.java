@@ -0,0 +1,52 @@
+package worstcasetests;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.FileSystem;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.Collectors;
+import java.util.zip.CRC32;
+
+import net.devtech.betterzipfs.ZipFS;
+import net.devtech.betterzipfs.impl.EntryMetadata;
+
+public class EntriesTests {
+	public static void main(String[] args) throws IOException {
+		Path zip = Files.createTempFile("entries", ".zip");
+		Files.delete(zip);
+		try {
+			try(FileSystem fs = ZipFS.createZip(zip)) {
+				Files.writeString(fs.getPath("/a.txt"), "short");
+				Files.writeString(fs.getPath("/b.txt"), "unchanged");
+			}
+			
+			// an overwritten entry is listed with its new contents, not the ones still in the zip file
+			String contents = "a good deal longer than it was before";
+			try(FileSystem fs = ZipFS.newFileSystem(zip, Map.of())) {
+				Files.writeString(fs.getPath("/a.txt"), contents);
+				Map<String, List<EntryMetadata>> entries = ZipFS.entries(fs)
+						.filter(e -> !e.isDirectory())
+						.collect(Collectors.groupingBy(e -> new String(e.name(), StandardCharsets.UTF_8)));
+				if(entries.size() != 2 || entries.get("/a.txt").size() != 1) {
+					throw new AssertionError("expected /a.txt and /b.txt once each but found " + entries.keySet());
+				}
+				EntryMetadata a = entries.get("/a.txt").get(0);
+				byte[] bytes = contents.getBytes(StandardCharsets.UTF_8);
+				CRC32 crc = new CRC32();
+				crc.update(bytes);
+				if(a.size() != bytes.length || a.crc() != crc.getValue()) {
+					throw new AssertionError("expected size " + bytes.length + " crc " + crc.getValue() + " but found size " + a.size() + " crc " + a.crc());
+				}
+				if(entries.get("/b.txt").get(0).size() != "unchanged".length()) {
+					throw new AssertionError("unchanged entry has the wrong size");
+				}
+			}
+		} finally {
+			Files.deleteIfExists(zip);
+		}
+		System.out.println("passed");
+	}
+}
@@ -0,0 +1,131 @@
+package worstcasetests;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.FileSystem;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Map;
+import java.util.Random;
+import java.util.TreeMap;
+import java.util.jar.JarFile;
+import java.util.stream.Collectors;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+
+import net.devtech.betterzipfs.ZipFS;
+
+public class IncrementalSyncTests {
+	static final Map<String, ?> ENV = Map.of("incrementalSync", "true");
+	
+	public static void main(String[] args) throws IOException {
+		Path zip = Files.createTempFile("incremental", ".zip");
+		Files.delete(zip);
+		try {
+			Map<String, String> expected = new TreeMap<>();
+			Random random = new Random(0);
+			try(FileSystem fs = ZipFS.newFileSystem(zip, Map.of("create", "true", "incrementalSync", "true"))) {
+				for(int i = 0; i < 100; i++) {
+					write(fs, expected, "/dir/entry" + i + ".txt", "entry " + i + " " + random.ints(200, 0, 16).mapToObj(Integer::toHexString).collect(Collectors.joining())); // doesn't deflate to nothing, so most of the zip is the entries
+				}
+			}
+			verify(zip, expected);
+			
+			// add
+			byte[] before = Files.readAllBytes(zip);
+			try(FileSystem fs = ZipFS.newFileSystem(zip, ENV)) {
+				write(fs, expected, "/added.txt", "added");
+			}
+			verify(zip, expected);
+			before = checkAppended(zip, before);
+			
+			// replace and delete
+			try(FileSystem fs = ZipFS.newFileSystem(zip, ENV)) {
+				write(fs, expected, "/dir/entry5.txt", "replaced");
+				Files.delete(fs.getPath("/dir/entry6.txt"));
+				expected.remove("dir/entry6.txt");
+			}
+			verify(zip, expected);
+			before = checkAppended(zip, before);
+			
+			// entries appended by the previous session are copied from where they were appended
+			try(FileSystem fs = ZipFS.newFileSystem(zip, ENV)) {
+				write(fs, expected, "/added.txt", "added again");
+				Files.delete(fs.getPath("/dir/entry5.txt"));
+				expected.remove("dir/entry5.txt");
+			}
+			verify(zip, expected);
+			before = checkAppended(zip, before);
+			
+			// a manifest has to come first, so the zip is rewritten
+			try(FileSystem fs = ZipFS.newFileSystem(zip, ENV)) {
+				Files.createDirectories(fs.getPath("/META-INF"));
+				write(fs, expected, "/META-INF/MANIFEST.MF", "Manifest-Version: 1.0\r\n\r\n");
+			}
+			verify(zip, expected);
+			byte[] after = Files.readAllBytes(zip);
+			if(after.length >= before.length && Arrays.equals(before, 0, before.length, after, 0, before.length)) {
+				throw new AssertionError("manifest was appended");
+			}
+			try(JarFile jar = new JarFile(zip.toFile())) {
+				if(jar.getManifest() == null) {
+					throw new AssertionError("manifest not found");
+				}
+			}
+			
+			// replaced entries are left in the file until most of it is left over, then closing rewrites it
+			byte[] large = new byte[1 << 20];
+			random.nextBytes(large);
+			for(int i = 0; i < 12; i++) {
+				large[0] = (byte) i;
+				try(FileSystem fs = ZipFS.newFileSystem(zip, ENV)) {
+					Files.write(fs.getPath("/large.bin"), large);
+				}
+				if(Files.size(zip) > 4 * large.length) { // the file is at most about 3 times the live entries before it is compacted
+					throw new AssertionError("zip wasn't compacted, it's " + Files.size(zip) + " bytes after " + (i + 1) + " rewrites");
+				}
+			}
+			try(ZipFile file = new ZipFile(zip.toFile())) {
+				if(!Arrays.equals(file.getInputStream(file.getEntry("large.bin")).readAllBytes(), large)) {
+					throw new AssertionError("large.bin has the wrong contents");
+				}
+			}
+		} finally {
+			Files.deleteIfExists(zip);
+		}
+		System.out.println("passed");
+	}
+	
+	static void write(FileSystem fs, Map<String, String> expected, String name, String contents) throws IOException {
+		Path path = fs.getPath(name);
+		if(path.getParent() != null) {
+			Files.createDirectories(path.getParent());
+		}
+		Files.writeString(path, contents, StandardCharsets.UTF_8);
+		expected.put(name.substring(1), contents);
+	}
+	
+	static byte[] checkAppended(Path zip, byte[] before) throws IOException {
+		byte[] after = Files.readAllBytes(zip);
+		if(after.length <= before.length || !Arrays.equals(before, 0, before.length, after, 0, before.length)) {
+			throw new AssertionError("sync rewrote the zip instead of appending to it");
+		}
+		return after;
+	}
+	
+	static void verify(Path zip, Map<String, String> expected) throws IOException {
+		Map<String, String> found = new TreeMap<>();
+		try(ZipFile file = new ZipFile(zip.toFile())) {
+			for(ZipEntry entry : Collections.list(file.entries())) {
+				if(!entry.isDirectory()) {
+					found.put(entry.getName(), new String(file.getInputStream(entry).readAllBytes(), StandardCharsets.UTF_8));
+				}
+			}
+		}
+		if(!found.equals(expected)) {
+			throw new AssertionError("expected " + expected + " but found " + found);
+		}
+	}
+}
@@ -0,0 +1,48 @@
+package worstcasetests;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.FileSystem;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Collections;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+
+import net.devtech.betterzipfs.ZipFS;
+
+public class StreamingZipTests {
+	public static void main(String[] args) throws IOException {
+		Path zip = Files.createTempFile("streaming", ".zip");
+		try {
+			try(FileSystem fs = ZipFS.createStreaming(zip)) {
+				Files.writeString(fs.getPath("/a.txt"), "first");
+				Files.writeString(fs.getPath("/a.txt"), "second");
+				Files.writeString(fs.getPath("/deleted.txt"), "deleted");
+				Files.delete(fs.getPath("/deleted.txt"));
+				Files.createDirectories(fs.getPath("/dir/deleted"));
+				Files.writeString(fs.getPath("/dir/b.txt"), "b");
+				Files.delete(fs.getPath("/dir/deleted"));
+			}
+			
+			// only the last write of each entry is listed, and deleted entries aren't
+			Map<String, String> found = new TreeMap<>();
+			try(ZipFile file = new ZipFile(zip.toFile())) {
+				for(ZipEntry entry : Collections.list(file.entries())) {
+					if(found.put(entry.getName(), new String(file.getInputStream(entry).readAllBytes(), StandardCharsets.UTF_8)) != null) {
+						throw new AssertionError("duplicate entry " + entry.getName());
+					}
+				}
+			}
+			Map<String, String> expected = Map.of("a.txt", "second", "dir/", "", "dir/b.txt", "b");
+			if(!found.equals(new TreeMap<>(expected))) {
+				throw new AssertionError("expected " + expected + " but found " + found);
+			}
+		} finally {
+			Files.deleteIfExists(zip);
+		}
+		System.out.println("passed");
+	}
+}
@@ -0,0 +1,106 @@
+package worstcasetests;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.zip.CRC32;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+import java.util.zip.ZipOutputStream;
+
+import net.devtech.betterzipfs.ZipFS;
+import net.devtech.betterzipfs.impl.ConflictStrategy;
+
+public class ZipMergeTests {
+	static final String SERVICE = "META-INF/services/test.Service";
+	
+	public static void main(String[] args) throws IOException {
+		Path dir = Files.createTempDirectory("merge");
+		try {
+			Path a = dir.resolve("a.zip"), b = dir.resolve("b.zip"), out = dir.resolve("out.zip");
+			Files.write(a, zip(Map.of("a.txt", "only in a", "shared.txt", "from a", SERVICE, "impl.A\n"), false));
+			// b has data before it like a self extracting archive, so its offsets are relative to where the zip starts
+			ByteArrayOutputStream prepended = new ByteArrayOutputStream();
+			prepended.write("#!/bin/sh\necho not a zip\nexit 0\n".getBytes(StandardCharsets.UTF_8));
+			prepended.write(zip(Map.of("b.txt", "only in b", "shared.txt", "from b", SERVICE, "impl.B"), true));
+			Files.write(b, prepended.toByteArray());
+			
+			ZipFS.merge(List.of(a, b), out, ConflictStrategy.FIRST_WINS);
+			verify(out, Map.of("a.txt", "only in a", "b.txt", "only in b", "shared.txt", "from a", SERVICE, "impl.A\n"));
+			
+			ZipFS.merge(List.of(a, b), out, ConflictStrategy.LAST_WINS);
+			verify(out, Map.of("a.txt", "only in a", "b.txt", "only in b", "shared.txt", "from b", SERVICE, "impl.B"));
+			
+			ZipFS.merge(List.of(a, b), out, ConflictStrategy.mergeServices(ConflictStrategy.LAST_WINS));
+			verify(out, Map.of("a.txt", "only in a", "b.txt", "only in b", "shared.txt", "from b", SERVICE, "impl.A\nimpl.B\n"));
+			
+			ConflictStrategy concatenate = ConflictStrategy.merging(name -> true, (name, contents) -> {
+				ByteArrayOutputStream merged = new ByteArrayOutputStream();
+				for(byte[] content : contents) {
+					merged.write(content);
+				}
+				return merged.toByteArray();
+			}, ConflictStrategy.FIRST_WINS);
+			ZipFS.merge(List.of(a, b), out, concatenate);
+			verify(out, Map.of("a.txt", "only in a", "b.txt", "only in b", "shared.txt", "from afrom b", SERVICE, "impl.A\nimpl.B"));
+			
+			// the output can be one of the inputs
+			ZipFS.merge(List.of(b, a), b, ConflictStrategy.FIRST_WINS);
+			verify(b, Map.of("a.txt", "only in a", "b.txt", "only in b", "shared.txt", "from b", SERVICE, "impl.B"));
+		} finally {
+			try(var files = Files.list(dir)) {
+				for(Path file : (Iterable<Path>) files::iterator) {
+					Files.delete(file);
+				}
+			}
+			Files.delete(dir);
+		}
+		System.out.println("passed");
+	}
+	
+	static byte[] zip(Map<String, String> entries, boolean stored) throws IOException {
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		try(ZipOutputStream zip = new ZipOutputStream(bytes)) {
+			zip.putNextEntry(new ZipEntry("META-INF/"));
+			zip.closeEntry();
+			for(Map.Entry<String, String> entry : new TreeMap<>(entries).entrySet()) {
+				byte[] contents = entry.getValue().getBytes(StandardCharsets.UTF_8);
+				ZipEntry zipEntry = new ZipEntry(entry.getKey());
+				if(stored) {
+					CRC32 crc = new CRC32();
+					crc.update(contents);
+					zipEntry.setMethod(ZipEntry.STORED);
+					zipEntry.setSize(contents.length);
+					zipEntry.setCrc(crc.getValue());
+				}
+				zip.putNextEntry(zipEntry);
+				zip.write(contents);
+				zip.closeEntry();
+			}
+		}
+		return bytes.toByteArray();
+	}
+	
+	static void verify(Path zip, Map<String, String> expected) throws IOException {
+		Map<String, String> found = new TreeMap<>();
+		int directories = 0;
+		try(ZipFile file = new ZipFile(zip.toFile())) {
+			for(ZipEntry entry : Collections.list(file.entries())) {
+				if(entry.isDirectory()) {
+					directories++;
+				} else if(found.put(entry.getName(), new String(file.getInputStream(entry).readAllBytes(), StandardCharsets.UTF_8)) != null) {
+					throw new AssertionError("duplicate entry " + entry.getName());
+				}
+			}
+		}
+		if(!found.equals(new TreeMap<>(expected)) || directories != 1) {
+			throw new AssertionError("expected " + expected + " and one directory but found " + found + " and " + directories);
+		}
+	}
+}